@@ -0,0 +1,235 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.core.ODataClientFactory;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmAction;
+import org.apache.olingo.commons.api.edm.EdmActionImport;
+import org.apache.olingo.commons.api.edm.EdmEntityContainer;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmParameter;
+import org.apache.olingo.commons.api.edm.EdmSchema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.System.out;
+
+/**
+ * Generates typed invokers (see ActionInvoker) for all actions of an Entity Data Model
+ *
+ * Walks the actions like OdataPrintUtils.printEdm does, emitting one invoker class per action and entity set
+ * it's bound to (and per action import), with a method taking each parameter as a Java argument.
+ *
+ * Usage: ActionInvokerGenerator &lt;metadata document&gt; &lt;source directory&gt; &lt;class name&gt;
+ */
+class ActionInvokerGenerator {
+
+    private static final String PACKAGE = "se.mtm.examples.odata";
+
+    // Java type of primitive parameters, and the ActionInvoker method building their values
+    private static final Map<String, String[]> PRIMITIVE_TYPES = new HashMap<>();
+
+    static {
+        PRIMITIVE_TYPES.put("Edm.String", new String[]{"String", "string"});
+        PRIMITIVE_TYPES.put("Edm.Int32", new String[]{"int", "int32"});
+        PRIMITIVE_TYPES.put("Edm.Int64", new String[]{"long", "int64"});
+        PRIMITIVE_TYPES.put("Edm.Boolean", new String[]{"boolean", "bool"});
+        PRIMITIVE_TYPES.put("Edm.Decimal", new String[]{"BigDecimal", "decimal"});
+        PRIMITIVE_TYPES.put("Edm.DateTimeOffset", new String[]{"Timestamp", "dateTimeOffset"});
+    }
+
+    private static final Set<String> JAVA_KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "payload"));
+
+    // Generator not intended for instantiation
+    private ActionInvokerGenerator() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: ActionInvokerGenerator <metadata document> <source directory> <class name>");
+        }
+        final Path metadataFile = Paths.get(args[0]);
+        final Path sourceDirectory = Paths.get(args[1]);
+        final String className = args[2];
+
+        final Edm edm;
+        try (InputStream metadata = Files.newInputStream(metadataFile)) {
+            edm = ODataClientFactory.getClient().getReader().readMetadata(metadata);
+        }
+
+        final Path sourceFile = sourceDirectory.resolve(PACKAGE.replace('.', '/')).resolve(className + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.write(sourceFile, generate(edm, className).getBytes(StandardCharsets.UTF_8));
+        out.println("Generated " + sourceFile);
+    }
+
+    /**
+     * Source of a class holding one invoker per action
+     */
+    static String generate(Edm edm, String className) {
+        final List<Invoker> invokers = new ArrayList<>();
+        final EdmEntityContainer container = edm.getEntityContainer();
+
+        for (EdmSchema schema : edm.getSchemas()) {
+            for (EdmAction action : schema.getActions()) {
+                if (!action.isBound()) {
+                    continue;
+                }
+                if (!Boolean.TRUE.equals(action.isBindingParameterTypeCollection())) {
+                    out.println("Skipping " + action.getFullQualifiedName() + ", bound to single entities");
+                    continue;
+                }
+                for (EdmEntitySet entitySet : container.getEntitySets()) {
+                    if (entitySet.getEntityType().getFullQualifiedName().equals(action.getBindingParameterTypeFqn())) {
+                        invokers.add(new Invoker(entitySet.getName() + action.getName(), entitySet.getName(), action));
+                    }
+                }
+            }
+        }
+        for (EdmActionImport actionImport : container.getActionImports()) {
+            invokers.add(new Invoker(actionImport.getName(), null, actionImport.getUnboundAction()));
+        }
+
+        final StringBuilder body = new StringBuilder();
+        for (Invoker invoker : invokers) {
+            invoker.appendClass(body);
+        }
+
+        final StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n")
+                .append("import org.apache.olingo.client.api.ODataClient;\n")
+                .append("import org.apache.olingo.client.api.communication.response.ODataInvokeResponse;\n")
+                .append("import org.apache.olingo.client.api.domain.ClientEntity;\n")
+                .append("import org.apache.olingo.client.api.domain.ClientValue;\n\n");
+        if (body.indexOf("BigDecimal ") >= 0) {
+            source.append("import java.math.BigDecimal;\n");
+        }
+        if (body.indexOf("Timestamp ") >= 0) {
+            source.append("import java.sql.Timestamp;\n");
+        }
+        source.append("import java.util.Map;\n\n")
+                .append("/**\n")
+                .append(" * Typed invokers of the actions of ").append(container.getFullQualifiedName()).append("\n")
+                .append(" *\n")
+                .append(" * Generated by ActionInvokerGenerator - don't edit, run 'gradle generateActionInvokers' instead.\n")
+                .append(" */\n")
+                .append("class ").append(className).append(" {\n\n");
+
+        for (Invoker invoker : invokers) {
+            source.append("    final ").append(invoker.className).append(' ').append(invoker.fieldName()).append(";\n");
+        }
+        source.append("\n    ").append(className).append("(ODataClient client, String serviceUrl, RequestRecorder recorder) {\n");
+        for (Invoker invoker : invokers) {
+            source.append("        ").append(invoker.fieldName()).append(" = new ").append(invoker.className)
+                    .append("(client, serviceUrl, recorder);\n");
+        }
+        source.append("    }\n")
+                .append(body)
+                .append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Invoker class of an action, bound to an entity set or imported
+     */
+    private static class Invoker {
+        private final String className;
+        private final String entitySetName;
+        private final EdmAction action;
+        private final List<EdmParameter> parameters = new ArrayList<>();
+
+        Invoker(String className, String entitySetName, EdmAction action) {
+            this.className = className;
+            this.entitySetName = entitySetName;
+            this.action = action;
+
+            final List<String> parameterNames = action.getParameterNames();
+            // The binding parameter (the entity set) comes first, and isn't part of the payload
+            for (int i = action.isBound() ? 1 : 0; i < parameterNames.size(); i++) {
+                parameters.add(action.getParameter(parameterNames.get(i)));
+            }
+        }
+
+        String fieldName() {
+            return Character.toLowerCase(className.charAt(0)) + className.substring(1);
+        }
+
+        void appendClass(StringBuilder source) {
+            final String returnType = action.getReturnType() == null ? "nothing" : action.getReturnType().getType().getFullQualifiedName().toString();
+            source.append("\n    /**\n")
+                    .append("     * ").append(action.getFullQualifiedName())
+                    .append(entitySetName != null ? " bound to " + entitySetName : " (action import)")
+                    .append(", returning ").append(returnType).append("\n")
+                    .append("     */\n")
+                    .append("    static final class ").append(className).append(" extends ActionInvoker {\n\n")
+                    .append("        ").append(className).append("(ODataClient client, String serviceUrl, RequestRecorder recorder) {\n")
+                    .append("            super(client, serviceUrl, recorder, ");
+            if (entitySetName != null) {
+                source.append('"').append(entitySetName).append("\", \"").append(action.getFullQualifiedName()).append('"');
+            } else {
+                source.append('"').append(className).append('"');
+            }
+            source.append(", ").append(parameters.size()).append(");\n")
+                    .append("        }\n\n");
+
+            // Payload, for batching
+            source.append("        Map<String, ClientValue> payload(").append(parameterList()).append(") {\n")
+                    .append("            final Map<String, ClientValue> payload = newPayload();\n");
+            for (EdmParameter parameter : parameters) {
+                final String[] primitive = primitiveTypeOf(parameter);
+                source.append("            payload.put(\"").append(parameter.getName()).append("\", ")
+                        .append(primitive != null ? primitive[1] + "(" + javaName(parameter) + ")" : javaName(parameter))
+                        .append(");\n");
+            }
+            source.append("            return payload;\n")
+                    .append("        }\n\n");
+
+            // Invocation
+            source.append("        ODataInvokeResponse<ClientEntity> invoke(").append(parameterList()).append(") {\n")
+                    .append("            return perform(payload(");
+            for (int i = 0; i < parameters.size(); i++) {
+                source.append(i > 0 ? ", " : "").append(javaName(parameters.get(i)));
+            }
+            source.append("));\n")
+                    .append("        }\n")
+                    .append("    }\n");
+        }
+
+        private String parameterList() {
+            final StringBuilder list = new StringBuilder();
+            for (EdmParameter parameter : parameters) {
+                final String[] primitive = primitiveTypeOf(parameter);
+                list.append(list.length() > 0 ? ", " : "")
+                        .append(primitive != null ? primitive[0] : "ClientValue").append(' ').append(javaName(parameter));
+            }
+            return list.toString();
+        }
+    }
+
+    /**
+     * Java type and value builder of a primitive parameter, or null if the caller has to build the value
+     */
+    private static String[] primitiveTypeOf(EdmParameter parameter) {
+        return parameter.isCollection() ? null : PRIMITIVE_TYPES.get(parameter.getType().getFullQualifiedName().toString());
+    }
+
+    private static String javaName(EdmParameter parameter) {
+        final String name = Character.toLowerCase(parameter.getName().charAt(0)) + parameter.getName().substring(1);
+        return JAVA_KEYWORDS.contains(name) ? name + "_" : name;
+    }
+}
@@ -0,0 +1,92 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.response.ODataInvokeResponse;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientValue;
+
+import java.util.Map;
+
+/**
+ * Typed invokers of the actions of Default.Container
+ *
+ * Generated by ActionInvokerGenerator - don't edit, run 'gradle generateActionInvokers' instead.
+ */
+class MMWebApiActions {
+
+    final BorrowersCreate borrowersCreate;
+    final BorrowerLoansCreateElectronicLoan borrowerLoansCreateElectronicLoan;
+    final BorrowerReservationsCreate borrowerReservationsCreate;
+
+    MMWebApiActions(ODataClient client, String serviceUrl, RequestRecorder recorder) {
+        borrowersCreate = new BorrowersCreate(client, serviceUrl, recorder);
+        borrowerLoansCreateElectronicLoan = new BorrowerLoansCreateElectronicLoan(client, serviceUrl, recorder);
+        borrowerReservationsCreate = new BorrowerReservationsCreate(client, serviceUrl, recorder);
+    }
+
+    /**
+     * Default.Create bound to Borrowers, returning Mikromarc.Common.Remoting.WebApiDTO.Borrower
+     */
+    static final class BorrowersCreate extends ActionInvoker {
+
+        BorrowersCreate(ODataClient client, String serviceUrl, RequestRecorder recorder) {
+            super(client, serviceUrl, recorder, "Borrowers", "Default.Create", 2);
+        }
+
+        Map<String, ClientValue> payload(String pin, ClientValue borrower) {
+            final Map<String, ClientValue> payload = newPayload();
+            payload.put("Pin", string(pin));
+            payload.put("Borrower", borrower);
+            return payload;
+        }
+
+        ODataInvokeResponse<ClientEntity> invoke(String pin, ClientValue borrower) {
+            return perform(payload(pin, borrower));
+        }
+    }
+
+    /**
+     * Default.CreateElectronicLoan bound to BorrowerLoans, returning Mikromarc.Common.Remoting.WebApiDTO.BorrowerLoan
+     */
+    static final class BorrowerLoansCreateElectronicLoan extends ActionInvoker {
+
+        BorrowerLoansCreateElectronicLoan(ODataClient client, String serviceUrl, RequestRecorder recorder) {
+            super(client, serviceUrl, recorder, "BorrowerLoans", "Default.CreateElectronicLoan", 4);
+        }
+
+        Map<String, ClientValue> payload(String marcId, String borrowerId, String daysUntilDue, String externalSystemName) {
+            final Map<String, ClientValue> payload = newPayload();
+            payload.put("MarcId", string(marcId));
+            payload.put("BorrowerId", string(borrowerId));
+            payload.put("DaysUntilDue", string(daysUntilDue));
+            payload.put("ExternalSystemName", string(externalSystemName));
+            return payload;
+        }
+
+        ODataInvokeResponse<ClientEntity> invoke(String marcId, String borrowerId, String daysUntilDue, String externalSystemName) {
+            return perform(payload(marcId, borrowerId, daysUntilDue, externalSystemName));
+        }
+    }
+
+    /**
+     * Default.Create bound to BorrowerReservations, returning Mikromarc.Common.Remoting.WebApiDTO.BorrowerReservation
+     */
+    static final class BorrowerReservationsCreate extends ActionInvoker {
+
+        BorrowerReservationsCreate(ODataClient client, String serviceUrl, RequestRecorder recorder) {
+            super(client, serviceUrl, recorder, "BorrowerReservations", "Default.Create", 3);
+        }
+
+        Map<String, ClientValue> payload(String marcId, String borrowerId, String deliverAtUnitId) {
+            final Map<String, ClientValue> payload = newPayload();
+            payload.put("MarcId", string(marcId));
+            payload.put("BorrowerId", string(borrowerId));
+            payload.put("DeliverAtUnitId", string(deliverAtUnitId));
+            return payload;
+        }
+
+        ODataInvokeResponse<ClientEntity> invoke(String marcId, String borrowerId, String deliverAtUnitId) {
+            return perform(payload(marcId, borrowerId, deliverAtUnitId));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.communication.response.ODataInvokeResponse;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.MarcRecordId;
+import se.mtm.examples.odata.MMWebApiApp.NewBorrower;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Serializing, sending and reading the response of action requests (against a local fixture server)
+ */
+@State(Scope.Benchmark)
+public class ActionRequestBenchmark {
+
+    private static final NewBorrower BORROWER = new NewBorrower("Exemplesdottir, Exemplara", "exemplara.exemplesdottir@example.com", 3, 6473, "swe", "1234");
+
+    private FixtureServer server;
+    private MMWebApiApp app;
+    private URI loanUri;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = FixtureServer.start();
+        app = new MMWebApiApp(server.getServiceUrl(), "user", "password");
+        loanUri = app.unidirectionalLoanUri();
+    }
+
+    @TearDown
+    public void tearDown() {
+        app.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int performLoanActionRequest() {
+        final ODataInvokeResponse<ClientEntity> response =
+                app.performActionRequest(loanUri, app.unidirectionalLoanPayload(new BorrowerId(4711), new MarcRecordId(56190)));
+        return response.getStatusCode();
+    }
+
+    @Benchmark
+    public BorrowerId createBorrower() {
+        return app.createBorrower(BORROWER);
+    }
+}
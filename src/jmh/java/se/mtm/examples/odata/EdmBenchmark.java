@@ -0,0 +1,36 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.core.ODataClientFactory;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntityContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Parsing the recorded metadata document into an Entity Data Model
+ */
+@State(Scope.Benchmark)
+public class EdmBenchmark {
+
+    private final byte[] metadata = FixtureServer.fixture("metadata.xml");
+    private final ODataClient client = ODataClientFactory.getClient();
+
+    @Benchmark
+    public Edm readMetadata() {
+        return client.getReader().readMetadata(new ByteArrayInputStream(metadata));
+    }
+
+    /**
+     * Olingo resolves the model lazily, so also measure looking up the entity container and its sets
+     */
+    @Benchmark
+    public EdmEntityContainer readMetadataAndResolveContainer() {
+        final EdmEntityContainer container = client.getReader().readMetadata(new ByteArrayInputStream(metadata)).getEntityContainer();
+        container.getEntitySets();
+        return container;
+    }
+}
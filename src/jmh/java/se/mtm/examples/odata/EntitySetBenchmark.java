@@ -0,0 +1,71 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientEntitySet;
+import org.apache.olingo.client.api.serialization.ODataDeserializerException;
+import org.apache.olingo.client.core.ODataClientFactory;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Deserializing recorded entity set responses, in memory as well as fetched from a local fixture server
+ */
+@State(Scope.Benchmark)
+public class EntitySetBenchmark {
+
+    private final byte[] borrowers = FixtureServer.fixture("borrowers.json");
+    private final byte[] people = FixtureServer.fixture("people.json");
+    private final URI borrowersUri = URI.create("http://localhost/odata/Borrowers");
+
+    private final StreamingEntitySetReader<BorrowerSummary> borrowerReader =
+            new StreamingEntitySetReader<BorrowerSummary>("Id").bindString("Name", BorrowerSummary::setName);
+
+    private ODataClient client;
+    private FixtureServer server;
+    private MMWebApiApp app;
+
+    @Setup
+    public void setUp() throws IOException {
+        client = ODataClientFactory.getClient();
+        server = FixtureServer.start();
+        app = new MMWebApiApp(server.getServiceUrl(), "user", "password");
+    }
+
+    @TearDown
+    public void tearDown() {
+        app.close();
+        server.close();
+    }
+
+    @Benchmark
+    public ClientEntitySet deserializeBorrowers() throws ODataDeserializerException {
+        return client.getReader().readEntitySet(new ByteArrayInputStream(borrowers), ContentType.JSON);
+    }
+
+    @Benchmark
+    public ClientEntitySet deserializePeople() throws ODataDeserializerException {
+        return client.getReader().readEntitySet(new ByteArrayInputStream(people), ContentType.JSON);
+    }
+
+    @Benchmark
+    public void streamBorrowerNames(Blackhole blackhole) throws IOException {
+        borrowerReader.read(new ByteArrayInputStream(borrowers), borrowersUri, new BorrowerSummary(), b -> blackhole.consume(b.getName()));
+    }
+
+    @Benchmark
+    public List<ClientEntity> fetchBorrowers() {
+        return app.fetchBorrowers(0, 100);
+    }
+}
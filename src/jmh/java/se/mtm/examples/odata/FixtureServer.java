@@ -0,0 +1,104 @@
+package se.mtm.examples.odata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for MMWebApi, answering every request with a recorded response (see src/jmh/resources/fixtures)
+ */
+class FixtureServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private FixtureServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Start a server on a free port of the loopback interface
+     */
+    static FixtureServer start() throws IOException {
+        // Without this, small responses are held back by Nagle's algorithm and each request takes ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        final ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
+            final Thread thread = new Thread(r, "fixture-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+
+        server.createContext("/odata/$metadata", exchange -> respond(exchange, 200, "application/xml", fixture("metadata.xml")));
+        server.createContext("/odata/Borrowers", exchange -> {
+            // Bound actions are invoked as .../Borrowers/Default.Create()
+            if (exchange.getRequestURI().getPath().contains("/Default.Create")) {
+                respond(exchange, 200, "application/json;odata.metadata=none", fixture("borrower-created.json"));
+            } else {
+                respond(exchange, 200, "application/json;odata.metadata=minimal", fixture("borrowers.json"));
+            }
+        });
+        server.createContext("/odata/BorrowerLoans", exchange -> respond(exchange, 200, "application/json;odata.metadata=none", fixture("loan-created.json")));
+        server.createContext("/odata/People", exchange -> respond(exchange, 200, "application/json;odata.metadata=minimal", fixture("people.json")));
+
+        server.start();
+        return new FixtureServer(server, executor);
+    }
+
+    String getServiceUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/odata/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Contents of a recorded response
+     */
+    static byte[] fixture(String name) {
+        try (InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such fixture: " + name);
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read fixture " + name, e);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        // Drain the request body so the connection can be kept alive
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            final byte[] buffer = new byte[8192];
+            while (requestBody.read(buffer) != -1) {
+                // discard
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("OData-Version", "4.0");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+}
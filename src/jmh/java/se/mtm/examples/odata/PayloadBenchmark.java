@@ -0,0 +1,76 @@
+package se.mtm.examples.odata;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.domain.ClientComplexValue;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientValue;
+import org.apache.olingo.client.api.serialization.ODataSerializerException;
+import org.apache.olingo.client.core.ODataClientFactory;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.MarcRecordId;
+import se.mtm.examples.odata.MMWebApiApp.NewBorrower;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Building action request bodies (no I/O), through Olingo's object model and from a pre-compiled template
+ */
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    private static final NewBorrower BORROWER = new NewBorrower("Exemplesdottir, Exemplara", "exemplara.exemplesdottir@example.com", 3, 6473, "swe", "1234");
+
+    private static final PayloadTemplate LOAN_TEMPLATE = PayloadTemplate.compile(
+            "{\"MarcId\":\"${marcId}\",\"BorrowerId\":\"${borrowerId}\",\"DaysUntilDue\":\"1\",\"ExternalSystemName\":\"Envägslån\"}");
+
+    private MMWebApiApp app;
+    private ODataClient client;
+
+    @Setup
+    public void setUp() {
+        // Never contacted, building payloads is local
+        app = new MMWebApiApp("http://localhost/odata/", "user", "password");
+        client = ODataClientFactory.getClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        app.close();
+    }
+
+    @Benchmark
+    public ClientComplexValue createBorrowerPayload() {
+        return app.createBorrowerPayload(BORROWER);
+    }
+
+    @Benchmark
+    public Map<String, ClientValue> unidirectionalLoanPayload() {
+        return app.unidirectionalLoanPayload(new BorrowerId(4711), new MarcRecordId(56190));
+    }
+
+    /**
+     * Building the payload and serializing it the way an action invocation request does
+     */
+    @Benchmark
+    public byte[] unidirectionalLoanBody() throws IOException, ODataSerializerException {
+        final ClientEntity entity = client.getObjectFactory().newEntity(null);
+        for (Map.Entry<String, ClientValue> parameter : app.unidirectionalLoanPayload(new BorrowerId(4711), new MarcRecordId(56190)).entrySet()) {
+            entity.getProperties().add(client.getObjectFactory().newPrimitiveProperty(parameter.getKey(), parameter.getValue().asPrimitive()));
+        }
+        return IOUtils.toByteArray(client.getWriter().writeEntity(entity, ContentType.JSON_NO_METADATA));
+    }
+
+    @Benchmark
+    public ByteBuffer unidirectionalLoanTemplateBody() {
+        return LOAN_TEMPLATE.write(Long.toString(56190), Long.toString(4711));
+    }
+}
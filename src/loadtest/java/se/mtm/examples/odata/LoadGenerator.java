@@ -0,0 +1,260 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.domain.ClientEntity;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.MarcRecordId;
+import se.mtm.examples.odata.MMWebApiApp.NewBorrower;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.System.out;
+
+/**
+ * Drives the facade at a target request rate, reporting throughput and latency percentiles per operation
+ *
+ * Requests are started on a fixed schedule whether or not earlier ones have completed (an open workload, like
+ * real users), and each latency is measured from when the request should have started. A service falling behind
+ * thereby shows in the percentiles, instead of silently lowering the request rate ("coordinated omission").
+ *
+ * Without --url a {@link MockMMWebApiServer} is started in-process, taking its options (--latency etc.) as well.
+ *
+ * 'get' fetches a borrower from the service every time, unless --cache is given: then it reads through the
+ * facade's entity cache, and as the borrowers are drawn from the same thousand most gets are cache hits that
+ * never reach the service.
+ *
+ * Usage: LoadGenerator [--url=... --user=... --password=...] [--rate=100] [--duration=30s] [--warmup=5s]
+ *                      [--threads=64] [--mix=get:60,list:20,create:10,loan:5,reservation:5] [--throttle] [--cache]
+ */
+public class LoadGenerator {
+
+    private static final long REPORT_INTERVAL_MILLIS = 5_000;
+
+    private final MMWebApiApp app;
+    private final boolean cached;
+    private final List<Operation> operations = new ArrayList<>();
+    private final double[] cumulativeWeights;
+    private final List<Long> borrowerIds = new CopyOnWriteArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new Options(args);
+
+        MockMMWebApiServer mock = null;
+        String serviceUrl = options.get("url", null);
+        if (serviceUrl == null) {
+            mock = MockMMWebApiServer.start(0, MockMMWebApiServer.Settings.from(options));
+            serviceUrl = mock.getServiceUrl();
+            out.println("Started stand-in MMWebApi at " + serviceUrl);
+        }
+
+        final RequestThrottle throttle = options.has("throttle") ? RequestThrottle.defaults() : RequestThrottle.unlimited();
+        final MMWebApiApp app = new MMWebApiApp(serviceUrl, options.get("user", "loadtest"), options.get("password", "loadtest"),
+                RequestMetrics.NONE, throttle);
+        final LoadGenerator generator =
+                new LoadGenerator(app, options.get("mix", "get:60,list:20,create:10,loan:5,reservation:5"), options.has("cache"));
+        generator.run(options.getInt("rate", 100), options.getMillis("warmup", 5_000), options.getMillis("duration", 30_000),
+                options.getInt("threads", 64));
+
+        app.close();
+        if (mock != null) {
+            mock.close();
+        }
+    }
+
+    /**
+     * @param cached whether 'get' may be served from the entity cache
+     */
+    LoadGenerator(MMWebApiApp app, String mix, boolean cached) {
+        this.app = app;
+        this.cached = cached;
+        final List<Double> weights = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            final String[] nameAndWeight = entry.split(":");
+            operations.add(new Operation(nameAndWeight[0], operation(nameAndWeight[0])));
+            weights.add(Double.parseDouble(nameAndWeight[1]));
+        }
+        final double total = weights.stream().mapToDouble(Double::doubleValue).sum();
+        this.cumulativeWeights = new double[weights.size()];
+        double cumulative = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            cumulative += weights.get(i) / total;
+            cumulativeWeights[i] = cumulative;
+        }
+    }
+
+    /**
+     * Send requests at the given rate for the warmup period (not measured) and then the measured duration
+     *
+     * @param threads the most requests in flight at a time, later ones wait (and their wait counts as latency)
+     */
+    void run(int requestsPerSecond, long warmupMillis, long durationMillis, int threads) throws InterruptedException {
+        for (ClientEntity borrower : app.fetchBorrowers(0, 1000)) {
+            borrowerIds.add(((Number) borrower.getProperty("Id").getPrimitiveValue().toValue()).longValue());
+        }
+        if (borrowerIds.isEmpty()) {
+            throw new IllegalStateException("The service has no borrowers to read, loan to, or reserve for");
+        }
+        out.println(String.format("%d requests/s for %d s (after %d s warmup), at most %d in flight, %d borrowers to start with%s",
+                requestsPerSecond, durationMillis / 1000, warmupMillis / 1000, threads, borrowerIds.size(),
+                cached ? ", gets served from the entity cache" : ""));
+
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "load-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        final long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long nextReport = measureFrom + TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MILLIS);
+
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            final long now = System.nanoTime();
+            if (intended > now) {
+                LockSupport.parkNanos(intended - now);
+            }
+            final long scheduled = intended;
+            final boolean measured = intended >= measureFrom;
+            if (measured && intended >= nextReport) {
+                report("Last " + REPORT_INTERVAL_MILLIS / 1000 + " s", REPORT_INTERVAL_MILLIS, true);
+                nextReport += TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MILLIS);
+            } else if (!measured && intended + intervalNanos >= measureFrom) {
+                // Warmup over, forget what was measured during it
+                resetAll();
+            }
+            final Operation operation = pick();
+            workers.execute(() -> operation.perform(scheduled));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+
+        out.println();
+        report("Total", durationMillis, false);
+    }
+
+    //// Operations ////
+
+    private Runnable operation(String name) {
+        switch (name) {
+            case "get":
+                return cached
+                        ? () -> app.fetchBorrower(new BorrowerId(randomBorrowerId()))
+                        : () -> app.refreshBorrower(new BorrowerId(randomBorrowerId()));
+            case "list":
+                return () -> app.fetchBorrowers(ThreadLocalRandom.current().nextInt(Math.max(1, borrowerIds.size() - 20)), 20);
+            case "create":
+                return () -> {
+                    final int n = ThreadLocalRandom.current().nextInt(1_000_000);
+                    final BorrowerId created = app.createBorrower(
+                            new NewBorrower("Load, Test " + n, "load.test" + n + "@example.com", 1, 6473, "swe", "1234"));
+                    borrowerIds.add(created.getDbId());
+                };
+            case "loan":
+                return () -> app.performActionRequest(app.unidirectionalLoanUri(),
+                        app.unidirectionalLoanPayload(new BorrowerId(randomBorrowerId()), new MarcRecordId(56190)));
+            case "reservation":
+                return () -> app.performActionRequest(app.reservationUri(),
+                        app.reservationPayload(new BorrowerId(randomBorrowerId()), new MarcRecordId(30755)));
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name + " (use get, list, create, loan or reservation)");
+        }
+    }
+
+    private Operation pick() {
+        final double random = ThreadLocalRandom.current().nextDouble();
+        int i = 0;
+        while (i < cumulativeWeights.length - 1 && random >= cumulativeWeights[i]) {
+            i++;
+        }
+        return operations.get(i);
+    }
+
+    private long randomBorrowerId() {
+        return borrowerIds.get(ThreadLocalRandom.current().nextInt(borrowerIds.size()));
+    }
+
+    //// Reporting ////
+
+    /**
+     * Print the statistics of each operation, those since the last report or those of the whole run
+     */
+    private void report(String title, long periodMillis, boolean sinceLastReport) {
+        out.println(String.format("%-14s %9s %7s %9s %9s %9s %9s %9s %9s",
+                title, "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Operation operation : operations) {
+            final Statistics statistics = sinceLastReport ? operation.sinceLastReport : operation.total;
+            final LatencyHistogram latencies = statistics.latencies;
+            out.println(String.format("%-14s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f",
+                    operation.name, latencies.getCount(), statistics.errors.get(), latencies.getCount() * 1000.0 / periodMillis,
+                    millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                    millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                    millis(latencies.getMax())));
+            if (sinceLastReport) {
+                statistics.reset();
+            }
+        }
+    }
+
+    private void resetAll() {
+        for (Operation operation : operations) {
+            operation.sinceLastReport.reset();
+            operation.total.reset();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * An operation of the mix, with its latencies (from intended start) and failures
+     */
+    private static class Operation {
+        private final String name;
+        private final Runnable request;
+        private final Statistics sinceLastReport = new Statistics();
+        private final Statistics total = new Statistics();
+
+        Operation(String name, Runnable request) {
+            this.name = name;
+            this.request = request;
+        }
+
+        void perform(long intendedStartNanos) {
+            boolean failed = false;
+            try {
+                request.run();
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            final long latencyNanos = System.nanoTime() - intendedStartNanos;
+            sinceLastReport.record(latencyNanos, failed);
+            total.record(latencyNanos, failed);
+        }
+    }
+
+    private static class Statistics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        void record(long latencyNanos, boolean failed) {
+            latencies.record(latencyNanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            latencies.reset();
+            errors.set(0);
+        }
+    }
+}
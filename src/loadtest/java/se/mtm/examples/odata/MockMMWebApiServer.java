@@ -0,0 +1,710 @@
+package se.mtm.examples.odata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.System.out;
+
+/**
+ * Local stand-in for MMWebApi, keeping Borrowers, BorrowerLoans and BorrowerReservations in memory
+ *
+ * Serves the metadata document of src/jmh/resources/fixtures, the three entity sets and their 'Create' actions -
+ * the parts of the service the facade uses - with latency and failures injected as configured, so performance
+ * can be tested repeatably and at any load without touching a real library.
+ *
+ * Understands the query options the facade sends: $top, $skip, $select, $count, $orderby on Id (ascending or
+ * descending), and $filter comparing Id ('Id gt 10 and Id le 20') or looking up a barcode
+ * ('Barcodes/any(b:b/Barcode eq ...)'). Pages are cut at a maximum page size, linking to the rest with
+ * '@odata.nextLink' like a real service. Action invocations can also be sent in a $batch request (answered part
+ * by part, honouring 'Prefer: odata.continue-on-error', though change sets aren't atomic). Anything else is
+ * answered with 501 Not Implemented.
+ *
+ * Usage: MockMMWebApiServer [--port=8080] [--borrowers=1000] [--latency=20ms] [--jitter=10ms] [--errors=0.01] [--capacity=50]
+ */
+public class MockMMWebApiServer implements AutoCloseable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final Pattern ENTITY_PATH = Pattern.compile("(\\w+)(?:\\((\\d+)\\))?(?:/(\\$count|Default\\.\\w+)(?:\\(\\))?)?");
+    private static final Pattern ID_COMPARISON = Pattern.compile("Id (eq|gt|ge|lt|le) (-?\\d+)");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BARCODE_LOOKUP = Pattern.compile("Barcodes/any\\((\\w+):\\1/Barcode eq '((?:[^']|'')*)'\\)");
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] metadata;
+
+    private final Map<String, EntitySet> entitySets = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new Options(args);
+        final MockMMWebApiServer server = start(options.getInt("port", 8080), Settings.from(options));
+        out.println("Serving stand-in MMWebApi at " + server.getServiceUrl() + " - " + server.settings);
+        Thread.currentThread().join();
+    }
+
+    private MockMMWebApiServer(Settings settings, HttpServer server, ExecutorService executor) {
+        this.settings = settings;
+        this.server = server;
+        this.executor = executor;
+        this.metadata = readFully(MockMMWebApiServer.class.getResourceAsStream("/fixtures/metadata.xml"));
+
+        entitySets.put("Borrowers", new EntitySet("Borrowers"));
+        entitySets.put("BorrowerLoans", new EntitySet("BorrowerLoans"));
+        entitySets.put("BorrowerReservations", new EntitySet("BorrowerReservations"));
+        for (int i = 0; i < settings.borrowers; i++) {
+            entitySets.get("Borrowers").add(newBorrower("Borrower " + i, "borrower" + i + "@example.com", "seed-" + i));
+        }
+    }
+
+    /**
+     * Start a server on the given port (0 for any free port)
+     */
+    static MockMMWebApiServer start(int port, Settings settings) throws IOException {
+        // Without this, small responses are held back by Nagle's algorithm and each request takes ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "mock-mmwebapi");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+
+        final MockMMWebApiServer mock = new MockMMWebApiServer(settings, server, executor);
+        server.createContext("/odata/", mock::handle);
+        server.start();
+        return mock;
+    }
+
+    String getServiceUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/odata/";
+    }
+
+    /**
+     * Number of borrowers, loans or reservations held
+     */
+    int size(String entitySetName) {
+        return entitySets.get(entitySetName).entities.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    //// Requests ////
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final byte[] requestBody = readFully(exchange.getRequestBody());
+        try {
+            if (inFlight.incrementAndGet() > settings.capacity) {
+                respondError(exchange, 503, "Server busy");
+                return;
+            }
+            injectLatency();
+            if (settings.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+                respondError(exchange, 503, "Injected failure");
+                return;
+            }
+            route(exchange, requestBody);
+        } catch (UnsupportedOperationException e) {
+            respondError(exchange, 501, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            respondError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            respondError(exchange, 500, e.toString());
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, byte[] requestBody) throws IOException {
+        final String path = exchange.getRequestURI().getPath().substring("/odata/".length());
+        final String method = exchange.getRequestMethod();
+        if (path.isEmpty()) {
+            respondJson(exchange, 200, serviceDocument(), null);
+            return;
+        }
+        if (path.equals("$metadata")) {
+            respond(exchange, 200, "application/xml", metadata, null);
+            return;
+        }
+        if (path.equals("$batch") && "POST".equals(method)) {
+            batch(exchange, requestBody);
+            return;
+        }
+
+        final Matcher matcher = ENTITY_PATH.matcher(path);
+        final EntitySet entitySet = matcher.matches() ? entitySets.get(matcher.group(1)) : null;
+        if (entitySet == null) {
+            respondError(exchange, 404, "No such resource: " + path);
+            return;
+        }
+        final String key = matcher.group(2);
+        final String operation = matcher.group(3);
+
+        if ("POST".equals(method) && key == null && operation != null && operation.startsWith("Default.")) {
+            respondJson(exchange, 200, invoke(entitySet, operation.substring("Default.".length()), JSON.readTree(requestBody)), null);
+        } else if ("GET".equals(method) && key != null && operation == null) {
+            final ObjectNode entity = entitySet.entities.get(Integer.valueOf(key));
+            if (entity == null) {
+                respondError(exchange, 404, "No " + entitySet.name + " with Id " + key);
+                return;
+            }
+            final String eTag = "W/\"" + entity.path("ModifiedDate").asText(entity.get("Id").asText()) + "\"";
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().set("ETag", eTag);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            respondJson(exchange, 200, entity, eTag);
+        } else if ("GET".equals(method) && key == null) {
+            final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            final List<ObjectNode> matching = query(entitySet, query);
+            if ("$count".equals(operation)) {
+                respond(exchange, 200, "text/plain", Integer.toString(matching.size()).getBytes(StandardCharsets.UTF_8), null);
+            } else {
+                respondJson(exchange, 200, page(entitySet, matching, query, exchange.getRequestURI().getRawQuery()), null);
+            }
+        } else {
+            respondError(exchange, 405, method + " " + path + " is not supported");
+        }
+    }
+
+    /**
+     * Answer the requests of a batch, each of them an action invocation (in a change set or not)
+     */
+    private void batch(HttpExchange exchange, byte[] requestBody) throws IOException {
+        final String boundary = boundaryOf(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if (boundary == null) {
+            throw new IllegalArgumentException("Batch request without a multipart boundary");
+        }
+        final boolean continueOnError = String.valueOf(exchange.getRequestHeaders().getFirst("Prefer")).contains("odata.continue-on-error");
+
+        final String responseBoundary = "batchresponse_" + UUID.randomUUID();
+        final StringBuilder response = new StringBuilder();
+        for (String part : parts(new String(requestBody, StandardCharsets.UTF_8), boundary)) {
+            final String[] headersAndBody = part.split("\r\n\r\n", 2);
+            final String changeSetBoundary = boundaryOf(header(headersAndBody[0], "Content-Type"));
+            final List<String> requests = changeSetBoundary == null ? Collections.singletonList(part) : parts(headersAndBody[1], changeSetBoundary);
+
+            final List<String> answers = new ArrayList<>();
+            String failure = null;
+            for (String request : requests) {
+                final String answer = answer(request.split("\r\n\r\n", 2)[1]);
+                answers.add(answer);
+                if (!answer.startsWith("HTTP/1.1 2")) {
+                    failure = answer;
+                    break;
+                }
+            }
+
+            response.append("--").append(responseBoundary).append("\r\n");
+            if (failure != null || changeSetBoundary == null) {
+                // A failed change set is answered with its failure alone
+                response.append("Content-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n\r\n")
+                        .append(failure != null ? failure : answers.get(0)).append("\r\n");
+            } else {
+                final String changeSetResponse = "changesetresponse_" + UUID.randomUUID();
+                response.append("Content-Type: multipart/mixed;boundary=").append(changeSetResponse).append("\r\n\r\n");
+                for (int i = 0; i < answers.size(); i++) {
+                    response.append("--").append(changeSetResponse).append("\r\n")
+                            .append("Content-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n")
+                            .append("Content-ID: ").append(i + 1).append("\r\n\r\n")
+                            .append(answers.get(i)).append("\r\n");
+                }
+                response.append("--").append(changeSetResponse).append("--\r\n");
+            }
+            if (failure != null && !continueOnError) {
+                break;
+            }
+        }
+        response.append("--").append(responseBoundary).append("--\r\n");
+        respond(exchange, 200, "multipart/mixed;boundary=" + responseBoundary, response.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Answer a request of a batch ('POST <url> HTTP/1.1', headers and body) with a response in the same form
+     */
+    private String answer(String request) {
+        final String[] headersAndBody = request.split("\r\n\r\n", 2);
+        final String[] requestLine = headersAndBody[0].split("\r\n", 2)[0].split(" ");
+        final String url = requestLine.length > 1 ? requestLine[1] : "";
+        final String path = url.contains("/odata/") ? url.substring(url.indexOf("/odata/") + "/odata/".length()) : url;
+        final Matcher matcher = ENTITY_PATH.matcher(path);
+        final EntitySet entitySet = matcher.matches() ? entitySets.get(matcher.group(1)) : null;
+
+        int status = 200;
+        JsonNode body;
+        try {
+            if (entitySet == null || !"POST".equals(requestLine[0]) || matcher.group(3) == null || !matcher.group(3).startsWith("Default.")) {
+                throw new UnsupportedOperationException("Only action invocations can be batched, not " + headersAndBody[0].split("\r\n", 2)[0]);
+            }
+            body = invoke(entitySet, matcher.group(3).substring("Default.".length()), JSON.readTree(headersAndBody.length > 1 ? headersAndBody[1] : ""));
+        } catch (UnsupportedOperationException e) {
+            status = 501;
+            body = error(status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(status, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body = error(status, e.toString());
+        }
+        return "HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n"
+                + "Content-Type: application/json;odata.metadata=minimal\r\n"
+                + "OData-Version: 4.0\r\n\r\n"
+                + body;
+    }
+
+    private ObjectNode invoke(EntitySet entitySet, String action, JsonNode parameters) {
+        final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS);
+        if (entitySet.name.equals("Borrowers") && action.equals("Create")) {
+            final ObjectNode borrower = JSON.createObjectNode();
+            final Iterator<Map.Entry<String, JsonNode>> properties = parameters.path("Borrower").fields();
+            while (properties.hasNext()) {
+                final Map.Entry<String, JsonNode> property = properties.next();
+                if (!property.getKey().startsWith("@")) {
+                    borrower.set(property.getKey(), property.getValue());
+                }
+            }
+            borrower.put("CreatedDate", now.toString());
+            borrower.put("ModifiedDate", now.toString());
+            return entitySet.add(borrower);
+        }
+        if (entitySet.name.equals("BorrowerLoans") && action.equals("CreateElectronicLoan")) {
+            final ObjectNode loan = JSON.createObjectNode();
+            loan.put("BorrowerId", borrowerId(parameters));
+            loan.put("MarcId", intParameter(parameters, "MarcId"));
+            loan.put("DueDate", now.plusDays(intParameter(parameters, "DaysUntilDue")).toString());
+            loan.put("ExternalSystemName", parameters.path("ExternalSystemName").asText());
+            return entitySet.add(loan);
+        }
+        if (entitySet.name.equals("BorrowerReservations") && action.equals("Create")) {
+            final ObjectNode reservation = JSON.createObjectNode();
+            reservation.put("BorrowerId", borrowerId(parameters));
+            reservation.put("MarcId", intParameter(parameters, "MarcId"));
+            reservation.put("DeliverAtUnitId", intParameter(parameters, "DeliverAtUnitId"));
+            return entitySet.add(reservation);
+        }
+        throw new UnsupportedOperationException("No action " + action + " bound to " + entitySet.name);
+    }
+
+    private int borrowerId(JsonNode parameters) {
+        final int borrowerId = intParameter(parameters, "BorrowerId");
+        if (!entitySets.get("Borrowers").entities.containsKey(borrowerId)) {
+            throw new IllegalArgumentException("No borrower with Id " + borrowerId);
+        }
+        return borrowerId;
+    }
+
+    private static int intParameter(JsonNode parameters, String name) {
+        try {
+            return Integer.parseInt(parameters.path(name).asText());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer");
+        }
+    }
+
+    //// Queries ////
+
+    private static List<ObjectNode> query(EntitySet entitySet, Map<String, String> query) {
+        final Predicate<ObjectNode> filter = parseFilter(query.get("$filter"));
+        final String orderBy = query.getOrDefault("$orderby", "Id");
+        final NavigableMap<Integer, ObjectNode> ordered;
+        if (orderBy.equals("Id") || orderBy.equals("Id asc")) {
+            ordered = entitySet.entities;
+        } else if (orderBy.equals("Id desc")) {
+            ordered = entitySet.entities.descendingMap();
+        } else {
+            throw new UnsupportedOperationException("Unsupported $orderby: " + orderBy);
+        }
+
+        final List<ObjectNode> matching = new ArrayList<>();
+        for (ObjectNode entity : ordered.values()) {
+            if (filter.test(entity)) {
+                matching.add(entity);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * A page of the matching entities, with a link to the rest (server-driven paging) if cut at the maximum page size
+     */
+    private ObjectNode page(EntitySet entitySet, List<ObjectNode> matching, Map<String, String> query, String rawQuery) {
+        final int skip = Integer.parseInt(query.getOrDefault("$skip", "0"));
+        final int top = query.containsKey("$top") ? Integer.parseInt(query.get("$top")) : Integer.MAX_VALUE;
+        final String[] select = query.containsKey("$select") ? query.get("$select").split(",") : null;
+
+        final ObjectNode response = JSON.createObjectNode();
+        response.put("@odata.context", getServiceUrl() + "$metadata#" + entitySet.name);
+        if ("true".equals(query.get("$count"))) {
+            response.put("@odata.count", matching.size());
+        }
+        final ArrayNode value = response.putArray("value");
+        final int end = (int) Math.min(matching.size(), (long) skip + Math.min(top, settings.maxPageSize));
+        for (int i = skip; i < end; i++) {
+            value.add(select == null ? matching.get(i) : matching.get(i).deepCopy().retain(select));
+        }
+        if (top > settings.maxPageSize && end < matching.size()) {
+            response.put("@odata.nextLink", getServiceUrl() + entitySet.name + "?" + continuation(rawQuery, end, top == Integer.MAX_VALUE ? top : top - (end - skip)));
+        }
+        return response;
+    }
+
+    /**
+     * The query options of a request, continuing at the given position
+     */
+    private static String continuation(String rawQuery, int skip, int top) {
+        final StringBuilder continuation = new StringBuilder();
+        for (String option : rawQuery == null ? new String[0] : rawQuery.split("&")) {
+            final String name = option.replace("%24", "$");
+            if (!option.isEmpty() && !name.startsWith("$skip=") && !name.startsWith("$top=")) {
+                continuation.append(option).append('&');
+            }
+        }
+        continuation.append("%24skip=").append(skip);
+        if (top != Integer.MAX_VALUE) {
+            continuation.append("&%24top=").append(top);
+        }
+        return continuation.toString();
+    }
+
+    private static Predicate<ObjectNode> parseFilter(String filter) {
+        Predicate<ObjectNode> predicate = entity -> true;
+        if (filter == null) {
+            return predicate;
+        }
+        for (String condition : filter.split(" and ")) {
+            // Olingo's FilterFactory parenthesizes both each side of 'and' and the whole, '((Id ge 1) and (Id lt 9))'
+            String unwrapped = condition.trim();
+            while (unwrapped.startsWith("(")) {
+                unwrapped = unwrapped.substring(1);
+            }
+            while (unwrapped.endsWith(")") && count(unwrapped, ')') > count(unwrapped, '(')) {
+                unwrapped = unwrapped.substring(0, unwrapped.length() - 1);
+            }
+            predicate = predicate.and(parseCondition(unwrapped.trim()));
+        }
+        return predicate;
+    }
+
+    private static int count(String text, char c) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Predicate<ObjectNode> parseCondition(String condition) {
+        final Matcher comparison = ID_COMPARISON.matcher(condition);
+        if (comparison.matches()) {
+            final long value = Long.parseLong(comparison.group(2));
+            switch (comparison.group(1)) {
+                case "eq": return entity -> entity.get("Id").asLong() == value;
+                case "gt": return entity -> entity.get("Id").asLong() > value;
+                case "ge": return entity -> entity.get("Id").asLong() >= value;
+                case "lt": return entity -> entity.get("Id").asLong() < value;
+                default: return entity -> entity.get("Id").asLong() <= value;
+            }
+        }
+        final Matcher barcodeLookup = BARCODE_LOOKUP.matcher(condition);
+        if (barcodeLookup.matches()) {
+            final String barcode = barcodeLookup.group(2).replace("''", "'");
+            return entity -> {
+                for (JsonNode existing : entity.path("Barcodes")) {
+                    if (barcode.equals(existing.path("Barcode").asText())) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+        throw new UnsupportedOperationException("Unsupported $filter: " + condition);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        try {
+            for (String option : rawQuery.split("&")) {
+                final int separator = option.indexOf('=');
+                if (separator > 0) {
+                    query.put(URLDecoder.decode(option.substring(0, separator), "UTF-8"), URLDecoder.decode(option.substring(separator + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+        return query;
+    }
+
+    //// Multipart ////
+
+    /**
+     * The parts of a multipart body, each one its headers, an empty line and its body
+     */
+    private static List<String> parts(String multipart, String boundary) {
+        final List<String> parts = new ArrayList<>();
+        final String[] chunks = ("\r\n" + multipart).split("\r\n" + Pattern.quote("--" + boundary), -1);
+        // The first chunk is the preamble, a chunk starting with '--' follows the close delimiter
+        for (int i = 1; i < chunks.length && !chunks[i].startsWith("--"); i++) {
+            parts.add(chunks[i].substring(chunks[i].indexOf("\r\n") + 2));
+        }
+        return parts;
+    }
+
+    private static String header(String headers, String name) {
+        for (String header : headers.split("\r\n")) {
+            if (header.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return header.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String boundaryOf(String contentType) {
+        final Matcher matcher = contentType == null ? null : BOUNDARY.matcher(contentType);
+        return matcher != null && matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            default: return "Status " + status;
+        }
+    }
+
+    //// Helpers ////
+
+    private ObjectNode newBorrower(String name, String email, String barcode) {
+        final String created = OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS).toString();
+        final ObjectNode borrower = JSON.createObjectNode();
+        borrower.put("Name", name);
+        borrower.put("MainEmail", email);
+        borrower.put("BorrowerGroupId", 1);
+        borrower.put("HomeUnitId", 6473);
+        borrower.put("PreferredLanguage", "swe");
+        borrower.put("CreatedDate", created);
+        borrower.put("ModifiedDate", created);
+        final ObjectNode barcodeNode = borrower.putArray("Barcodes").addObject();
+        barcodeNode.put("Barcode", barcode);
+        barcodeNode.put("IsCommonBorrowerCard", false);
+        barcodeNode.put("IsSSN", false);
+        return borrower;
+    }
+
+    private ObjectNode serviceDocument() {
+        final ObjectNode document = JSON.createObjectNode();
+        document.put("@odata.context", getServiceUrl() + "$metadata");
+        final ArrayNode value = document.putArray("value");
+        for (String name : entitySets.keySet()) {
+            value.addObject().put("name", name).put("kind", "EntitySet").put("url", name);
+        }
+        return document;
+    }
+
+    private void injectLatency() {
+        final long latencyMillis = settings.latencyMillis
+                + (settings.jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(settings.jitterMillis + 1) : 0);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void respondJson(HttpExchange exchange, int status, JsonNode body, String eTag) throws IOException {
+        respond(exchange, status, "application/json;odata.metadata=minimal", JSON.writeValueAsBytes(body), eTag);
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        respondJson(exchange, status, error(status, message), null);
+    }
+
+    private static ObjectNode error(int status, String message) {
+        final ObjectNode error = JSON.createObjectNode();
+        error.putObject("error").put("code", Integer.toString(status)).put("message", message);
+        return error;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body, String eTag) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("OData-Version", "4.0");
+        if (eTag != null) {
+            exchange.getResponseHeaders().set("ETag", eTag);
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) {
+        try (InputStream body = in) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read request body", e);
+        }
+    }
+
+    /**
+     * Entities of one set, keyed (and ordered) by Id
+     */
+    private static class EntitySet {
+        private final String name;
+        private final ConcurrentSkipListMap<Integer, ObjectNode> entities = new ConcurrentSkipListMap<>();
+        private final AtomicInteger nextId = new AtomicInteger(1);
+
+        EntitySet(String name) {
+            this.name = name;
+        }
+
+        ObjectNode add(ObjectNode entity) {
+            final int id = nextId.getAndIncrement();
+            final ObjectNode withId = JSON.createObjectNode().put("Id", id);
+            withId.setAll(entity);
+            entities.put(id, withId);
+            return withId;
+        }
+    }
+
+    /**
+     * Injected latency and failures, and the size of the stand-in
+     */
+    static class Settings {
+        private int borrowers = 1000;
+        private long latencyMillis = 0;
+        private long jitterMillis = 0;
+        private double errorRate = 0;
+        private int capacity = Integer.MAX_VALUE;
+        private int maxPageSize = 1000;
+
+        static Settings defaults() {
+            return new Settings();
+        }
+
+        /**
+         * Settings from the options --borrowers, --latency, --jitter, --errors, --capacity and --max-page-size
+         */
+        static Settings from(Options options) {
+            return defaults()
+                    .borrowers(options.getInt("borrowers", 1000))
+                    .latencyMillis(options.getMillis("latency", 0))
+                    .jitterMillis(options.getMillis("jitter", 0))
+                    .errorRate(options.getDouble("errors", 0))
+                    .capacity(options.getInt("capacity", Integer.MAX_VALUE))
+                    .maxPageSize(options.getInt("max-page-size", 1000));
+        }
+
+        /**
+         * Number of borrowers created at start
+         */
+        Settings borrowers(int borrowers) {
+            this.borrowers = borrowers;
+            return this;
+        }
+
+        /**
+         * Time taken by every request
+         */
+        Settings latencyMillis(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Random extra time taken by a request, up to this much
+         */
+        Settings jitterMillis(long jitterMillis) {
+            this.jitterMillis = jitterMillis;
+            return this;
+        }
+
+        /**
+         * Share of requests failing with 503 (0-1)
+         */
+        Settings errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Requests handled at the same time, more are refused with 503
+         */
+        Settings capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Most entities returned per response, regardless of $top - the rest is linked to with '@odata.nextLink'
+         */
+        Settings maxPageSize(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d borrowers, latency %d+%d ms, %.2f%% errors, capacity %s",
+                    borrowers, latencyMillis, jitterMillis, errorRate * 100, capacity == Integer.MAX_VALUE ? "unlimited" : Integer.toString(capacity));
+        }
+    }
+}
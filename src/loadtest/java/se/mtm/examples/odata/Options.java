@@ -0,0 +1,62 @@
+package se.mtm.examples.odata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form --name=value (or just --name, meaning "true")
+ */
+class Options {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Options(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+    }
+
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    /**
+     * A duration such as '250ms', '30s' or '5m' (plain numbers are milliseconds)
+     */
+    long getMillis(String name, long defaultValue) {
+        final String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2));
+        }
+        if (value.endsWith("s")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+        }
+        if (value.endsWith("m")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 60_000;
+        }
+        return Long.parseLong(value);
+    }
+}
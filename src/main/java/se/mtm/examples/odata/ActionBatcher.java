@@ -0,0 +1,358 @@
+package se.mtm.examples.odata;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.ODataServerErrorException;
+import org.apache.olingo.client.api.communication.response.ODataResponse;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientObjectFactory;
+import org.apache.olingo.client.api.domain.ClientProperty;
+import org.apache.olingo.client.api.domain.ClientValue;
+import org.apache.olingo.client.api.http.HttpClientFactory;
+import org.apache.olingo.client.api.serialization.ODataSerializerException;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static java.lang.System.out;
+
+/**
+ * Collects action invocations into OData $batch requests
+ *
+ * Queued actions are sent when the batch is full, when the flush interval has passed, or on an explicit flush.
+ * Each action is put in a change set of its own so that the failure of one action doesn't roll back the others.
+ *
+ * The batch request is written and its response read by {@link BatchPayload}, sent through the HTTP client of the
+ * OData client's factory like {@link TemplatedAction} does: Olingo's batch support can't carry action invocations
+ * (in 4.4 it has no response template for them), and all the outcome of an action needs is its status.
+ *
+ * If the service rejects $batch requests as such (400, 404, 405 or 501) the actions are sent one by one instead,
+ * and batching is turned off for the lifetime of the batcher (MM3 is picky about the request formats it accepts).
+ * Any other failure fails the actions of the batch without resending them, as the service may already have
+ * processed some of them.
+ */
+class ActionBatcher implements AutoCloseable {
+
+    private final ODataClient client;
+    private final URI batchUri;
+    private final int maxBatchSize;
+    private final BiFunction<URI, Map<String, ClientValue>, ? extends ODataResponse> individualInvoker;
+    private final RequestRecorder recorder;
+
+    // Sends the batches (timed as well as full ones) so that callers never block on network I/O
+    private final ScheduledExecutorService sender;
+
+    private List<PendingAction> pending = new ArrayList<>();
+    private boolean closed;
+    private volatile boolean batchingSupported = true;
+
+    /**
+     * @param maxBatchSize        maximum number of actions per $batch request
+     * @param flushIntervalMillis maximum time an action is held back waiting for the batch to fill up
+     * @param individualInvoker   fallback invoking a single action outside of a batch
+     * @param recorder            records the $batch requests
+     */
+    ActionBatcher(ODataClient client, String serviceUrl, int maxBatchSize, long flushIntervalMillis,
+                  BiFunction<URI, Map<String, ClientValue>, ? extends ODataResponse> individualInvoker,
+                  RequestRecorder recorder) {
+        if (maxBatchSize <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Batch size and flush interval must be positive");
+        }
+        this.client = client;
+        this.batchUri = client.newURIBuilder(serviceUrl).appendBatchSegment().build();
+        this.maxBatchSize = maxBatchSize;
+        this.individualInvoker = individualInvoker;
+        this.recorder = recorder;
+        this.sender = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "action-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue an action invocation, the returned future completes when its batch has been processed
+     *
+     * @throws IllegalStateException if the batcher has been closed
+     */
+    CompletableFuture<ActionOutcome> submit(URI actionUri, Map<String, ClientValue> payload) {
+        final PendingAction action = new PendingAction(actionUri, payload);
+        final boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Action batcher is closed, can't queue " + actionUri);
+            }
+            pending.add(action);
+            full = pending.size() >= maxBatchSize;
+        }
+        if (full) {
+            try {
+                sender.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Closing meanwhile, the final flush of close sends it
+            }
+        }
+        return action.outcome;
+    }
+
+    /**
+     * Send all queued actions now
+     */
+    void flush() {
+        List<PendingAction> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+
+        // Respect the max batch size even if actions were queued faster than they were sent
+        for (int from = 0; from < batch.size(); from += maxBatchSize) {
+            send(batch.subList(from, Math.min(from + maxBatchSize, batch.size())));
+        }
+    }
+
+    /**
+     * Send remaining actions, then stop - actions can't be queued after this
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        sender.shutdown();
+        try {
+            sender.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    //// Sending ////
+
+    private void send(List<PendingAction> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (!batchingSupported || batch.size() == 1) {
+            batch.forEach(this::sendIndividually);
+            return;
+        }
+
+        try {
+            sendBatch(batch);
+        } catch (RuntimeException e) {
+            if (batch.stream().noneMatch(action -> action.outcome.isDone()) && isBatchRejected(statusCodeOf(e))) {
+                // The service doesn't take batch requests at all, none of the actions were processed
+                out.println("Batch request rejected, falling back to individual requests: " + e.getMessage());
+                batchingSupported = false;
+                batch.forEach(this::sendIndividually);
+                return;
+            }
+            // The service may have processed (some of) the actions, resending them could duplicate them
+            batch.stream().filter(action -> !action.outcome.isDone()).forEach(action -> action.outcome.complete(ActionOutcome.failed(e)));
+            return;
+        }
+
+        // A service not continuing on error stops processing at the first failed action, the rest are sent on their own
+        batch.stream().filter(action -> !action.outcome.isDone()).forEach(this::sendIndividually);
+    }
+
+    /**
+     * Send the actions as a $batch request, completing the outcome of each action that got a response
+     */
+    private void sendBatch(List<PendingAction> batch) {
+        final BatchPayload payload = new BatchPayload("batch_" + UUID.randomUUID());
+        for (PendingAction action : batch) {
+            payload.addAction(action.actionUri, parameters(action.payload));
+        }
+        final byte[] body = payload.toByteArray();
+
+        final List<ActionOutcome> outcomes = recorder.call(MMWebApiApp.SEND_BATCH, () -> {
+            final HttpPost request = new HttpPost(batchUri);
+            request.setHeader(HttpHeader.CONTENT_TYPE, payload.getContentType());
+            request.setHeader(HttpHeader.ACCEPT, ContentType.MULTIPART_MIXED.toContentTypeString());
+            request.setHeader(HttpHeader.ODATA_VERSION, "4.0");
+            request.setHeader(HttpHeader.ODATA_MAX_VERSION, "4.0");
+            request.setHeader(HttpHeader.PREFER, "odata.continue-on-error");
+            request.setEntity(new ByteArrayEntity(body));
+
+            final HttpClientFactory httpClientFactory = client.getConfiguration().getHttpClientFactory();
+            final HttpClient httpClient = httpClientFactory.create(HttpMethod.POST, batchUri);
+            try {
+                final HttpResponse response = httpClient.execute(request);
+                try {
+                    final int statusCode = response.getStatusLine().getStatusCode();
+                    if (statusCode >= 500) {
+                        throw new ODataServerErrorException(response.getStatusLine());
+                    }
+                    if (statusCode >= 400) {
+                        throw new ODataClientErrorException(response.getStatusLine());
+                    }
+                    final Header contentType = response.getFirstHeader(HttpHeader.CONTENT_TYPE);
+                    return BatchPayload.readOutcomes(contentType == null ? null : contentType.getValue(),
+                            response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity()));
+                } finally {
+                    EntityUtils.consume(response.getEntity());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to send batch of " + batch.size() + " actions", e);
+            } finally {
+                httpClientFactory.close(httpClient);
+            }
+        });
+
+        for (int i = 0; i < outcomes.size() && i < batch.size(); i++) {
+            batch.get(i).outcome.complete(outcomes.get(i));
+        }
+    }
+
+    /**
+     * The parameters of an action as a JSON object, serialized the way Olingo's invoke requests do
+     */
+    private byte[] parameters(Map<String, ClientValue> payload) {
+        final ClientObjectFactory factory = client.getObjectFactory();
+        final ClientEntity parameters = factory.newEntity(null);
+        for (Map.Entry<String, ClientValue> parameter : payload.entrySet()) {
+            final ClientValue value = parameter.getValue();
+            final ClientProperty property;
+            if (value.isPrimitive()) {
+                property = factory.newPrimitiveProperty(parameter.getKey(), value.asPrimitive());
+            } else if (value.isComplex()) {
+                property = factory.newComplexProperty(parameter.getKey(), value.asComplex());
+            } else if (value.isCollection()) {
+                property = factory.newCollectionProperty(parameter.getKey(), value.asCollection());
+            } else {
+                property = factory.newEnumProperty(parameter.getKey(), value.asEnum());
+            }
+            parameters.getProperties().add(property);
+        }
+        try (InputStream json = client.getWriter().writeEntity(parameters, ContentType.JSON_NO_METADATA)) {
+            return IOUtils.toByteArray(json);
+        } catch (ODataSerializerException e) {
+            throw new IllegalArgumentException("Can't serialize action parameters " + payload.keySet(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize action parameters", e);
+        }
+    }
+
+    /**
+     * HTTP status of an error response as thrown by Olingo, or 0 if the exception isn't one
+     */
+    private static int statusCodeOf(RuntimeException e) {
+        if (e instanceof ODataClientErrorException) {
+            return ((ODataClientErrorException) e).getStatusLine().getStatusCode();
+        }
+        if (e instanceof ODataServerErrorException) {
+            // Only keeps the status line, as its message ("HTTP/1.1 503 Service Unavailable")
+            final String[] statusLine = String.valueOf(e.getMessage()).split(" ");
+            return statusLine.length > 1 && statusLine[1].matches("\\d{3}") ? Integer.parseInt(statusLine[1]) : 500;
+        }
+        return 0;
+    }
+
+    /**
+     * If the service refused a batch request because it doesn't take batch requests (rather than failing to process it)
+     */
+    private static boolean isBatchRejected(int statusCode) {
+        return statusCode == 400 || statusCode == 404 || statusCode == 405 || statusCode == 501;
+    }
+
+    private void sendIndividually(PendingAction action) {
+        try {
+            action.outcome.complete(ActionOutcome.of(individualInvoker.apply(action.actionUri, action.payload)));
+        } catch (RuntimeException e) {
+            action.outcome.complete(ActionOutcome.failed(e));
+        }
+    }
+
+    //// Value types ////
+
+    private static class PendingAction {
+        private final URI actionUri;
+        private final Map<String, ClientValue> payload;
+        private final CompletableFuture<ActionOutcome> outcome = new CompletableFuture<>();
+
+        PendingAction(URI actionUri, Map<String, ClientValue> payload) {
+            this.actionUri = actionUri;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Result of a single action invocation (whether it was sent in a batch or not)
+     */
+    static class ActionOutcome {
+        private final int statusCode;
+        private final String statusMessage;
+        private final RuntimeException failure;
+
+        private ActionOutcome(int statusCode, String statusMessage, RuntimeException failure) {
+            this.statusCode = statusCode;
+            this.statusMessage = statusMessage;
+            this.failure = failure;
+        }
+
+        static ActionOutcome of(ODataResponse response) {
+            return new ActionOutcome(response.getStatusCode(), response.getStatusMessage(), null);
+        }
+
+        static ActionOutcome of(int statusCode, String statusMessage) {
+            return new ActionOutcome(statusCode, statusMessage, null);
+        }
+
+        static ActionOutcome failed(RuntimeException failure) {
+            return new ActionOutcome(-1, failure.getMessage(), failure);
+        }
+
+        boolean isSuccess() {
+            return failure == null && statusCode >= 200 && statusCode < 300;
+        }
+
+        /**
+         * HTTP status of the action, or -1 if no response was received
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getStatusMessage() {
+            return statusMessage;
+        }
+
+        /**
+         * Exception thrown when invoking the action outside of a batch, if any
+         */
+        RuntimeException getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("HTTP Status: %d %s", statusCode, statusMessage);
+        }
+    }
+}
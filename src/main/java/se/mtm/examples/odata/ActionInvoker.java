@@ -0,0 +1,101 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.response.ODataInvokeResponse;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientPrimitiveValue;
+import org.apache.olingo.client.api.domain.ClientValue;
+import org.apache.olingo.client.api.uri.URIBuilder;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Invoker of one action, with its URI and metrics name worked out once
+ *
+ * Subclasses - generated from the Entity Data Model (see src/codegen) - add a method per action taking
+ * its parameters as typed Java arguments, so a misspelt or mistyped parameter doesn't compile.
+ */
+abstract class ActionInvoker {
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final URI actionUri;
+    private final String operation;
+    private final int parameterCount;
+
+    /**
+     * Invoker of an action bound to an entity set
+     */
+    ActionInvoker(ODataClient client, String serviceUrl, RequestRecorder recorder, String entitySetName, String actionName, int parameterCount) {
+        this(client, recorder, client.newURIBuilder(serviceUrl).appendEntitySetSegment(entitySetName), entitySetName + "/" + actionName, actionName, parameterCount);
+    }
+
+    /**
+     * Invoker of an unbound action (action import)
+     */
+    ActionInvoker(ODataClient client, String serviceUrl, RequestRecorder recorder, String actionImportName, int parameterCount) {
+        this(client, recorder, client.newURIBuilder(serviceUrl), actionImportName, actionImportName, parameterCount);
+    }
+
+    private ActionInvoker(ODataClient client, RequestRecorder recorder, URIBuilder uriBuilder, String path, String actionName, int parameterCount) {
+        this.client = client;
+        this.recorder = recorder;
+        this.actionUri = uriBuilder.appendOperationCallSegment(actionName).build();
+        this.operation = "POST " + path;
+        this.parameterCount = parameterCount;
+    }
+
+    URI getUri() {
+        return actionUri;
+    }
+
+    /**
+     * Name of the action in request metrics
+     */
+    String getOperation() {
+        return operation;
+    }
+
+    //// For subclasses ////
+
+    /**
+     * Empty payload, sized for the parameters of the action
+     */
+    Map<String, ClientValue> newPayload() {
+        return new HashMap<>(parameterCount * 4 / 3 + 1);
+    }
+
+    ODataInvokeResponse<ClientEntity> perform(Map<String, ClientValue> payload) {
+        return recorder.call(operation, () -> MMWebApiApp.newActionRequest(client, actionUri, payload).execute());
+    }
+
+    ClientPrimitiveValue string(String value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder().buildString(value);
+    }
+
+    ClientPrimitiveValue int32(int value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder().buildInt32(value);
+    }
+
+    ClientPrimitiveValue int64(long value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder().buildInt64(value);
+    }
+
+    ClientPrimitiveValue bool(boolean value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder().buildBoolean(value);
+    }
+
+    ClientPrimitiveValue decimal(BigDecimal value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder().buildDecimal(value);
+    }
+
+    ClientPrimitiveValue dateTimeOffset(Timestamp value) {
+        return client.getObjectFactory().newPrimitiveValueBuilder()
+                .setType(EdmPrimitiveTypeKind.DateTimeOffset).setValue(value).build();
+    }
+}
@@ -0,0 +1,116 @@
+package se.mtm.examples.odata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of requests in flight, adapting the limit to what the service currently sustains
+ *
+ * Additive increase, multiplicative decrease (as in TCP congestion control): every request completing
+ * normally while the limit is in use raises it by 1/limit - i.e. by about one per round trip - and a request
+ * showing overload cuts it, at most once per round trip. Overload is an error response (5xx, 429) or a timeout,
+ * cutting the limit by 30%, or a latency well above the lowest one seen for the same operation (requests queueing
+ * in the server), cutting it by 10%.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.7;
+
+    // Rising latency is an early warning, backed off from more gently than from errors
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+    // Latency above this multiple of the best seen means requests queue up in the server
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    // Lets the best latency drift up slowly, so a lucky measurement (or a changed service) isn't kept forever
+    private static final double BASELINE_DRIFT = 0.001;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private final Map<String, Double> baselineNanos = new HashMap<>();
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        // Long enough ago that the first back-off is never suppressed (nanoTime's origin is arbitrary)
+        this.lastDecreaseNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+    }
+
+    /**
+     * Wait until another request may be sent
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * A request has completed, adjust the limit by how it went
+     *
+     * @param overloaded if the response showed that the service is overloaded (regardless of latency)
+     */
+    synchronized void release(String operation, long latencyNanos, boolean overloaded) {
+        final Double baseline = baselineNanos.get(operation);
+        final boolean slow = baseline != null && latencyNanos > baseline * LATENCY_TOLERANCE;
+        baselineNanos.put(operation, baseline == null || latencyNanos < baseline
+                ? (double) latencyNanos
+                : baseline + (latencyNanos - baseline) * BASELINE_DRIFT);
+
+        completed(overloaded, slow, latencyNanos);
+    }
+
+    /**
+     * A call of several requests (e.g. reading several pages) has completed, adjust the limit by how it went
+     *
+     * The call's latency says nothing about a single request's, so it's neither compared with nor taken into
+     * the operation's baseline - only overload backs off.
+     *
+     * @param roundTripNanos latency of one of its requests, on average
+     */
+    synchronized void release(long roundTripNanos, boolean overloaded) {
+        completed(overloaded, false, roundTripNanos);
+    }
+
+    private void completed(boolean overloaded, boolean slow, long roundTripNanos) {
+        final boolean limitInUse = inFlight >= (int) limit;
+        inFlight--;
+
+        if (overloaded || slow) {
+            // Requests in flight when the service got overloaded will all say so, back off only once for them
+            final long now = System.nanoTime();
+            if (now - lastDecreaseNanos > roundTripNanos) {
+                limit = Math.max(minLimit, limit * (overloaded ? BACKOFF_RATIO : LATENCY_BACKOFF_RATIO));
+                lastDecreaseNanos = now;
+            }
+        } else if (limitInUse) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * A request has completed without reaching the service (e.g. served from a cache), leave the limit as it is
+     */
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
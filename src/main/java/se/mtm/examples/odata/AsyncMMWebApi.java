@@ -0,0 +1,95 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.domain.ClientEntity;
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.MarcRecordId;
+import se.mtm.examples.odata.MMWebApiApp.NewBorrower;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking variant of the {@link MMWebApiApp} facade
+ *
+ * Every method returns at once with a future of its result, so dependent steps compose without tying up
+ * the calling thread:
+ *
+ * <pre>
+ * api.createBorrower(newBorrower)
+ *         .thenCompose(borrower -&gt; api.registerUnidirectionalLoan(borrower, eBook)
+ *                 .thenCompose(loan -&gt; api.registerReservation(borrower, book)));
+ * </pre>
+ *
+ * The requests themselves are made by a small pool of I/O threads - about as many as there are pooled
+ * connections, since a request can't make progress without one anyway. Calls beyond that are queued,
+ * so any number of calls may be in flight. Futures failing with a request's exception (e.g. a 5xx response)
+ * short-circuit the rest of a chain.
+ *
+ * Dependent stages without an executor of their own run on the I/O threads; keep them short, or pass
+ * an executor to the *Async methods of CompletableFuture.
+ */
+class AsyncMMWebApi implements AutoCloseable {
+
+    private final MMWebApiApp api;
+    private final ExecutorService ioExecutor;
+
+    /**
+     * @param ioThreads number of requests made at the same time
+     */
+    AsyncMMWebApi(MMWebApiApp api, int ioThreads) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("Number of I/O threads must be positive");
+        }
+        this.api = api;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, r -> {
+            final Thread thread = new Thread(r, "mmwebapi-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    CompletableFuture<BorrowerId> createBorrower(NewBorrower newBorrower) {
+        return async(() -> api.createBorrower(newBorrower));
+    }
+
+    CompletableFuture<ActionOutcome> registerUnidirectionalLoan(BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return async(() -> ActionOutcome.of(
+                api.performActionRequest(api.unidirectionalLoanUri(), api.unidirectionalLoanPayload(borrowerId, marcRecordId))));
+    }
+
+    CompletableFuture<ActionOutcome> registerReservation(BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return async(() -> ActionOutcome.of(
+                api.performActionRequest(api.reservationUri(), api.reservationPayload(borrowerId, marcRecordId))));
+    }
+
+    CompletableFuture<List<ClientEntity>> fetchBorrowers(int offset, int limit) {
+        return async(() -> api.fetchBorrowers(offset, limit));
+    }
+
+    CompletableFuture<List<String>> fetchBorrowerNames(int offset, int limit) {
+        return async(() -> api.fetchBorrowerNames(offset, limit));
+    }
+
+    CompletableFuture<ClientEntity> fetchBorrower(BorrowerId borrowerId) {
+        return async(() -> api.fetchBorrower(borrowerId));
+    }
+
+    /**
+     * Stop accepting calls, the ones already queued are still made
+     */
+    @Override
+    public void close() {
+        ioExecutor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> async(Supplier<T> request) {
+        return CompletableFuture.supplyAsync(request, ioExecutor);
+    }
+}
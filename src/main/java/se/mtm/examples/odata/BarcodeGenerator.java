@@ -0,0 +1,79 @@
+package se.mtm.examples.odata;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Generates unique barcodes, which double as idempotency keys of borrower creation
+ *
+ * Snowflake style: each barcode packs the time in milliseconds (41 bits), a node id (10 bits) and a sequence
+ * number within the millisecond (12 bits) into one number. Within a process barcodes never collide - up to
+ * 4096 per millisecond, after that generation spins until the next millisecond - and processes with different
+ * node ids never collide with each other. Generation is lock free.
+ */
+class BarcodeGenerator {
+
+    // Custom epoch (2018-01-01), leaving the 41 time bits good for 69 years from then
+    private static final long EPOCH_MILLIS = 1514764800000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final String prefix;
+    private final long nodeId;
+
+    // Time and sequence number of the last generated barcode, (millis << SEQUENCE_BITS) | sequence
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * @param nodeId unique among the processes creating borrowers at the same time (0-1023)
+     */
+    BarcodeGenerator(String prefix, long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        this.prefix = prefix;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Generator with a node id from the system property 'barcode.node.id', or a random one
+     * (for occasional use from a few processes, where a shared node id is unlikely)
+     */
+    static BarcodeGenerator withDefaultNodeId(String prefix) {
+        final String configured = System.getProperty("barcode.node.id");
+        return new BarcodeGenerator(prefix,
+                configured != null ? Long.parseLong(configured) : new SecureRandom().nextInt((int) MAX_NODE_ID + 1));
+    }
+
+    String next() {
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            final long now = currentTimeMillis() - EPOCH_MILLIS;
+            final long previousMillis = previous >>> SEQUENCE_BITS;
+            if (now > previousMillis) {
+                next = now << SEQUENCE_BITS;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // Same millisecond (or the clock went backwards): continue the sequence of the last one
+                next = previous + 1;
+            } else {
+                // Sequence exhausted, wait for the next millisecond
+                Thread.yield();
+                continue;
+            }
+            if (last.compareAndSet(previous, next)) {
+                break;
+            }
+        } while (true);
+
+        final long millis = next >>> SEQUENCE_BITS;
+        final long id = (millis << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+        return prefix + Long.toString(id, 36);
+    }
+}
@@ -0,0 +1,156 @@
+package se.mtm.examples.odata;
+
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Multipart body of an OData $batch request invoking actions, and the statuses of the response's parts
+ *
+ * Each action is put in a change set of its own, so that the failure of one action doesn't roll back the others.
+ * Only the status line of each answer is read - all an {@link ActionOutcome} needs - in the order the actions
+ * were written.
+ */
+class BatchPayload {
+
+    private static final String CRLF = "\r\n";
+    private static final String JSON_NO_METADATA = "application/json;odata.metadata=none";
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=(?:\"([^\"]+)\"|([^;\\s]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STATUS_LINE = Pattern.compile("HTTP/\\d\\.\\d (\\d{3})(?: (.*))?");
+
+    private final String boundary;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int actions;
+
+    BatchPayload(String boundary) {
+        this.boundary = boundary;
+    }
+
+    /**
+     * Content type of the request, naming its boundary
+     */
+    String getContentType() {
+        return "multipart/mixed;boundary=" + boundary;
+    }
+
+    /**
+     * Add an action invocation, in a change set of its own
+     *
+     * @param parameters the action's parameters, as a JSON object
+     */
+    BatchPayload addAction(URI actionUri, byte[] parameters) {
+        final String changeSet = "changeset_" + boundary + "_" + ++actions;
+        write("--" + boundary + CRLF
+                + "Content-Type: multipart/mixed;boundary=" + changeSet + CRLF
+                + CRLF
+                + "--" + changeSet + CRLF
+                + "Content-Type: application/http" + CRLF
+                + "Content-Transfer-Encoding: binary" + CRLF
+                + "Content-ID: " + actions + CRLF
+                + CRLF
+                + "POST " + actionUri + " HTTP/1.1" + CRLF
+                + "Content-Type: " + JSON_NO_METADATA + CRLF
+                + "Accept: " + JSON_NO_METADATA + CRLF
+                + "Content-Length: " + parameters.length + CRLF
+                + CRLF);
+        body.write(parameters, 0, parameters.length);
+        write(CRLF + "--" + changeSet + "--" + CRLF);
+        return this;
+    }
+
+    /**
+     * The request body, closing the batch
+     */
+    byte[] toByteArray() {
+        final byte[] written = body.toByteArray();
+        final byte[] end = ("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        final byte[] closed = Arrays.copyOf(written, written.length + end.length);
+        System.arraycopy(end, 0, closed, written.length, end.length);
+        return closed;
+    }
+
+    private void write(String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        body.write(bytes, 0, bytes.length);
+    }
+
+    //// Responses ////
+
+    /**
+     * Outcomes of the answered actions of a batch response, in order - fewer than were sent if the service
+     * stopped processing at a failed one
+     *
+     * @param contentType the response's content type, naming its boundary
+     * @throws IllegalArgumentException if the response isn't a multipart one
+     */
+    static List<ActionOutcome> readOutcomes(String contentType, byte[] response) {
+        final String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            throw new IllegalArgumentException("Expected a multipart batch response, got " + contentType);
+        }
+        final List<ActionOutcome> outcomes = new ArrayList<>();
+        readParts(new String(response, StandardCharsets.UTF_8), boundary, outcomes);
+        return outcomes;
+    }
+
+    private static void readParts(String multipart, String boundary, List<ActionOutcome> outcomes) {
+        final String delimiter = "--" + boundary;
+        int delimiterStart = multipart.startsWith(delimiter) ? 0 : multipart.indexOf("\n" + delimiter) + 1;
+        if (delimiterStart == 0 && !multipart.startsWith(delimiter)) {
+            return;
+        }
+        while (!multipart.startsWith("--", delimiterStart + delimiter.length())) {
+            final int partStart = multipart.indexOf('\n', delimiterStart + delimiter.length()) + 1;
+            final int nextDelimiter = multipart.indexOf("\n" + delimiter, partStart);
+            if (partStart == 0 || nextDelimiter < 0) {
+                // Unterminated part, whatever was answered has been read
+                return;
+            }
+            // The line break before a delimiter belongs to the delimiter
+            final int partEnd = nextDelimiter > partStart && multipart.charAt(nextDelimiter - 1) == '\r' ? nextDelimiter - 1 : nextDelimiter;
+            readPart(multipart.substring(partStart, partEnd), outcomes);
+            delimiterStart = nextDelimiter + 1;
+        }
+    }
+
+    /**
+     * Read a part: a nested change set, or the answer to a single request
+     */
+    private static void readPart(String part, List<ActionOutcome> outcomes) {
+        final String[] headersAndBody = part.split("\r?\n\r?\n", 2);
+        String contentType = "";
+        for (String header : headersAndBody[0].split("\r?\n")) {
+            if (header.toLowerCase(Locale.ROOT).startsWith("content-type:")) {
+                contentType = header.substring("content-type:".length()).trim();
+            }
+        }
+        final String body = headersAndBody.length > 1 ? headersAndBody[1] : "";
+        final String nestedBoundary = boundaryOf(contentType);
+        if (contentType.toLowerCase(Locale.ROOT).startsWith("multipart/mixed") && nestedBoundary != null) {
+            readParts(body, nestedBoundary, outcomes);
+        } else if (contentType.toLowerCase(Locale.ROOT).startsWith("application/http")) {
+            final Matcher statusLine = STATUS_LINE.matcher(body.split("\r?\n", 2)[0].trim());
+            if (!statusLine.matches()) {
+                throw new IllegalArgumentException("Expected a status line in batch response part: " + part);
+            }
+            outcomes.add(ActionOutcome.of(Integer.parseInt(statusLine.group(1)), statusLine.group(2) == null ? "" : statusLine.group(2)));
+        }
+    }
+
+    private static String boundaryOf(String contentType) {
+        final Matcher matcher = contentType == null ? null : BOUNDARY.matcher(contentType);
+        if (matcher == null || !matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+}
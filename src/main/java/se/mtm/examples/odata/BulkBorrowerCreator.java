@@ -0,0 +1,178 @@
+package se.mtm.examples.odata;
+
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.NewBorrower;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Creates large numbers of borrowers (e.g. a whole school class) with a bounded number of concurrent requests
+ *
+ * Borrowers are pulled from the input stream only when there is room for another request in flight,
+ * so the input may be arbitrarily large (backpressure). Requests failing transiently (5xx, timeouts) are retried
+ * as the {@link RetryPolicy} says - without creating duplicates, see {@link MMWebApiApp#createBorrower(NewBorrower, RetryPolicy)}.
+ * The outcome of every borrower - created or failed - is reported to the caller.
+ */
+class BulkBorrowerCreator implements AutoCloseable {
+
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 200;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+
+    private final MMWebApiApp api;
+    private final int concurrency;
+    private final RetryPolicy retryPolicy;
+    private final ExecutorService executor;
+
+    /**
+     * @param api         facade used to create each borrower
+     * @param concurrency maximum number of creation requests in flight at once
+     * @param maxAttempts maximum number of attempts per borrower (1 means no retries)
+     */
+    BulkBorrowerCreator(MMWebApiApp api, int concurrency, int maxAttempts) {
+        this(api, concurrency, new RetryPolicy(maxAttempts, INITIAL_RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS));
+    }
+
+    BulkBorrowerCreator(MMWebApiApp api, int concurrency, RetryPolicy retryPolicy) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.api = api;
+        this.concurrency = concurrency;
+        this.retryPolicy = retryPolicy;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, r -> {
+            final Thread thread = new Thread(r, "bulk-borrower-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create all given borrowers, blocking until every one of them has been created or has failed
+     *
+     * Outcomes are reported one at a time (never concurrently), in completion order.
+     */
+    void createAll(Stream<NewBorrower> newBorrowers, Consumer<Outcome> outcomeConsumer) {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final Object outcomeLock = new Object();
+
+        final Iterator<NewBorrower> iterator = newBorrowers.iterator();
+        while (iterator.hasNext()) {
+            final NewBorrower newBorrower = iterator.next();
+            acquire(inFlight, 1);
+            try {
+                executor.execute(() -> {
+                    try {
+                        final Outcome outcome = create(newBorrower);
+                        synchronized (outcomeLock) {
+                            outcomeConsumer.accept(outcome);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        // Wait for the last requests to complete
+        acquire(inFlight, concurrency);
+        inFlight.release(concurrency);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Create a single borrower, retrying transient failures
+     */
+    private Outcome create(NewBorrower newBorrower) {
+        final AtomicInteger attempts = new AtomicInteger(1);
+        try {
+            final BorrowerId borrowerId =
+                    api.createBorrower(newBorrower, retryPolicy.onRetry((attempt, failure, delayMillis) -> attempts.set(attempt + 1)));
+            return Outcome.created(newBorrower, borrowerId, attempts.get());
+        } catch (RuntimeException e) {
+            return Outcome.failed(newBorrower, e, attempts.get());
+        }
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for borrower creation", e);
+        }
+    }
+
+    /**
+     * Result of creating one borrower
+     */
+    static class Outcome {
+        private final NewBorrower newBorrower;
+        private final BorrowerId borrowerId;
+        private final RuntimeException failure;
+        private final int attempts;
+
+        private Outcome(NewBorrower newBorrower, BorrowerId borrowerId, RuntimeException failure, int attempts) {
+            this.newBorrower = newBorrower;
+            this.borrowerId = borrowerId;
+            this.failure = failure;
+            this.attempts = attempts;
+        }
+
+        static Outcome created(NewBorrower newBorrower, BorrowerId borrowerId, int attempts) {
+            return new Outcome(newBorrower, borrowerId, null, attempts);
+        }
+
+        static Outcome failed(NewBorrower newBorrower, RuntimeException failure, int attempts) {
+            return new Outcome(newBorrower, null, failure, attempts);
+        }
+
+        boolean isCreated() {
+            return borrowerId != null;
+        }
+
+        NewBorrower getNewBorrower() {
+            return newBorrower;
+        }
+
+        /**
+         * Id of the created borrower, or null if creation failed
+         */
+        BorrowerId getBorrowerId() {
+            return borrowerId;
+        }
+
+        /**
+         * Cause of failure, or null if the borrower was created
+         */
+        RuntimeException getFailure() {
+            return failure;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return isCreated()
+                    ? String.format("%s created as %s (attempts: %d)", newBorrower, borrowerId, attempts)
+                    : String.format("%s failed: %s (attempts: %d)", newBorrower, failure, attempts);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package se.mtm.examples.odata;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing, giving it time to recover
+ *
+ * After a number of consecutive transient failures the circuit opens, and requests fail at once without
+ * being sent. When the open period has passed a single trial request is let through: if it succeeds the
+ * circuit closes again, otherwise it stays open for another period.
+ */
+class CircuitBreaker {
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0 || openMillis <= 0) {
+            throw new IllegalArgumentException("Failure threshold and open period must be positive");
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Check that a request may be sent
+     *
+     * @throws OpenException if the circuit is open (or its trial request is still in progress)
+     */
+    synchronized void acquirePermission() {
+        if (state == State.OPEN && currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            return;
+        }
+        if (state != State.CLOSED) {
+            throw new OpenException(name, openedAt + openMillis - currentTimeMillis());
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * A request failed in a way that may mean the endpoint is unhealthy (see {@link RetryPolicy#isTransient})
+     */
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = currentTimeMillis();
+        }
+    }
+
+    /**
+     * A request failed in a way saying nothing about the endpoint's health (e.g. 404), release a trial permit
+     */
+    synchronized void onNeutral() {
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * Thrown instead of sending a request to an endpoint whose circuit is open
+     */
+    static class OpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String name, long retryAfterMillis) {
+            super("Circuit of " + name + " is open, not sending requests for another " + Math.max(retryAfterMillis, 0) + " ms");
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package se.mtm.examples.odata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of outbound commands (loans, reservations), in a memory-mapped file
+ *
+ * A command is appended - and made durable - before it's sent, and its outcome is appended once the service
+ * has answered. After a crash, the commands without an outcome are the ones that may or may not have reached
+ * the service; see {@link #unacknowledged()}.
+ *
+ * Appending is a copy into the mapped file. Making a command durable forces the file to disk, which is
+ * shared by everyone waiting at the time (group commit): while one thread forces, others keep appending,
+ * and the next force covers all of them. Outcomes aren't forced on their own - one lost in a crash only
+ * means its command is replayed.
+ *
+ * Records are [length][CRC32][type][sequence][data], so a record torn by a crash is detected and ignored.
+ * When the file fills up it's compacted, keeping only unacknowledged commands, and grown if that isn't enough.
+ */
+class CommandJournal implements Closeable {
+
+    private static final int MAGIC = 0x4a524e31; // "JRN1"
+    private static final int HEADER_SIZE = 4 + 8; // magic, first sequence number
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1 + 8; // length, CRC, type, sequence
+
+    private static final byte COMMAND = 1;
+    private static final byte OUTCOME = 2;
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+    private final Path file;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private long nextSequence;
+
+    // Bytes written, and how many of them are known to be on disk
+    private int writePosition;
+    private int durablePosition;
+    private boolean forcing;
+
+    // Commands without an outcome, in journal order
+    private final Map<Long, Command> pending = new LinkedHashMap<>();
+
+    /**
+     * Open (or create) a journal, with the default capacity of 64 MiB before compaction
+     */
+    CommandJournal(Path file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    CommandJournal(Path file, int capacity) {
+        if (capacity < HEADER_SIZE + 1024) {
+            throw new IllegalArgumentException("Journal capacity must be at least " + (HEADER_SIZE + 1024) + " bytes");
+        }
+        this.file = file;
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            map(Math.max(capacity, Files.isRegularFile(file) ? (int) Files.size(file) : 0));
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open command journal " + file, e);
+        }
+    }
+
+    /**
+     * Append a command and wait until it's durable - call before sending it
+     *
+     * @param kind      what to do, e.g. "loan"
+     * @param arguments what to do it with, e.g. borrower and record ids
+     */
+    Command record(String kind, long... arguments) {
+        final Command command = append(kind, arguments);
+        awaitDurable(command);
+        return command;
+    }
+
+    /**
+     * Append a command without waiting for it to be durable (see {@link #awaitDurable})
+     */
+    synchronized Command append(String kind, long... arguments) {
+        final Command command = new Command(nextSequence++, kind, arguments);
+        write(COMMAND, command.sequence, command.encode());
+        command.position = writePosition;
+        pending.put(command.sequence, command);
+        return command;
+    }
+
+    /**
+     * Wait until a command appended earlier is on disk, forcing the file unless another thread already does
+     */
+    void awaitDurable(Command command) {
+        final int forcedPosition;
+        final MappedByteBuffer forced;
+        synchronized (this) {
+            while (durablePosition < command.position && forcing) {
+                waitUninterruptibly();
+            }
+            if (durablePosition >= command.position) {
+                return;
+            }
+            // Force everything appended so far, not just this command
+            forcing = true;
+            forcedPosition = writePosition;
+            forced = buffer;
+        }
+        try {
+            forced.force();
+        } finally {
+            synchronized (this) {
+                forcing = false;
+                durablePosition = Math.max(durablePosition, forcedPosition);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Record that the service has answered a command (whether it accepted it or not)
+     */
+    synchronized void acknowledge(Command command, int statusCode) {
+        if (pending.remove(command.sequence) == null) {
+            return;
+        }
+        write(OUTCOME, command.sequence, ByteBuffer.allocate(4).putInt(statusCode).array());
+    }
+
+    /**
+     * Commands appended but never acknowledged - after a restart, those that may not have reached the service
+     */
+    synchronized List<Command> unacknowledged() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Rewrite the journal keeping only unacknowledged commands
+     */
+    synchronized void compact() {
+        compact(0);
+    }
+
+    @Override
+    public synchronized void close() {
+        while (forcing) {
+            waitUninterruptibly();
+        }
+        try {
+            buffer.force();
+            raf.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close command journal " + file, e);
+        }
+    }
+
+    //// Records ////
+
+    private void write(byte type, long sequence, byte[] data) {
+        if (writePosition + RECORD_OVERHEAD + data.length > buffer.capacity()) {
+            compact(RECORD_OVERHEAD + data.length);
+        }
+        writePosition = writeRecord(buffer, writePosition, type, sequence, data);
+    }
+
+    /**
+     * Write a record at the given position, returning the position after it
+     */
+    private static int writeRecord(MappedByteBuffer target, int position, byte type, long sequence, byte[] data) {
+        final int length = 1 + 8 + data.length;
+        final ByteBuffer body = ByteBuffer.allocate(length).put(type).putLong(sequence).put(data);
+        final CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+
+        target.position(position + 4);
+        target.putInt((int) crc.getValue());
+        target.put(body.array());
+        target.putInt(position, length);
+        return position + 4 + 4 + length;
+    }
+
+    /**
+     * Read the records written before, stopping at the end (a zero length), at a torn record, or at a record
+     * that doesn't continue the journal
+     *
+     * Commands are numbered consecutively from the first sequence number in the header (those carried over by
+     * compaction, numbered below it, come first), and outcomes refer to commands before them.
+     */
+    private void recover() {
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(4, 0);
+            writePosition = HEADER_SIZE;
+            durablePosition = 0;
+            return;
+        }
+        final long firstSequence = buffer.getLong(4);
+        nextSequence = firstSequence;
+        int position = HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length < 1 + 8 || position + 8 + length > buffer.capacity()) {
+                break;
+            }
+            final byte[] body = new byte[length];
+            buffer.position(position + 8);
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            final ByteBuffer record = ByteBuffer.wrap(body);
+            final byte type = record.get();
+            final long sequence = record.getLong();
+            final boolean carriedOver = sequence < firstSequence && nextSequence == firstSequence;
+            if (type == COMMAND ? sequence != nextSequence && !carriedOver : sequence >= nextSequence) {
+                break;
+            }
+            position += 8 + length;
+
+            if (type == COMMAND) {
+                final Command command = Command.decode(sequence, record);
+                command.position = position;
+                pending.put(sequence, command);
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            } else {
+                pending.remove(sequence);
+            }
+        }
+        clearFrom(position);
+        writePosition = position;
+        durablePosition = position;
+    }
+
+    /**
+     * Clear whatever follows the last record recovered (a torn record, and any records written after it), so that
+     * it isn't mistaken for records appended later - wherever those end
+     */
+    private void clearFrom(int position) {
+        boolean cleared = false;
+        int i = position;
+        for (; i < buffer.capacity() && i % 8 != 0; i++) {
+            cleared |= buffer.get(i) != 0;
+            buffer.put(i, (byte) 0);
+        }
+        // Only pages holding data are written to, the rest of the file stays sparse
+        for (; i + 8 <= buffer.capacity(); i += 8) {
+            if (buffer.getLong(i) != 0) {
+                buffer.putLong(i, 0);
+                cleared = true;
+            }
+        }
+        for (; i < buffer.capacity(); i++) {
+            cleared |= buffer.get(i) != 0;
+            buffer.put(i, (byte) 0);
+        }
+        if (cleared) {
+            buffer.force();
+        }
+    }
+
+    private int pendingSize() {
+        int size = 0;
+        for (Command command : pending.values()) {
+            size += RECORD_OVERHEAD + command.encode().length;
+        }
+        return size;
+    }
+
+    /**
+     * Write the unacknowledged commands to a new file with room for a record of the given size, then replace the
+     * journal with it
+     */
+    private void compact(int recordSize) {
+        // Waiting releases the monitor, so the size needed is only known after it
+        while (forcing) {
+            waitUninterruptibly();
+        }
+        final int needed = HEADER_SIZE + pendingSize() + recordSize;
+        // Grow when compaction would leave the journal more than half full, so it isn't compacted all the time
+        int capacity = buffer.capacity();
+        while (needed > capacity / 2) {
+            if (capacity > Integer.MAX_VALUE / 2) {
+                throw new IllegalStateException("Command journal " + file + " is full of unacknowledged commands");
+            }
+            capacity *= 2;
+        }
+        final Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            int position = HEADER_SIZE;
+            try (RandomAccessFile out = new RandomAccessFile(compacted.toFile(), "rw")) {
+                out.setLength(0);
+                out.setLength(capacity);
+                final MappedByteBuffer target = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                target.putInt(0, MAGIC);
+                target.putLong(4, nextSequence);
+                for (Command command : pending.values()) {
+                    position = writeRecord(target, position, COMMAND, command.sequence, command.encode());
+                }
+                target.force();
+            }
+            raf.close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            map(capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact command journal " + file, e);
+        }
+
+        // Same records as written above, so the same positions
+        int position = HEADER_SIZE;
+        for (Command command : pending.values()) {
+            position += RECORD_OVERHEAD + command.encode().length;
+            command.position = position;
+        }
+        writePosition = position;
+        durablePosition = position;
+    }
+
+    private void map(int capacity) throws IOException {
+        raf = new RandomAccessFile(file.toFile(), "rw");
+        if (raf.length() < capacity) {
+            raf.setLength(capacity);
+        }
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void waitUninterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for command journal " + file, e);
+        }
+    }
+
+    //// Commands ////
+
+    /**
+     * A journaled command: what to do (e.g. "loan") and with what (e.g. borrower and record ids)
+     */
+    static class Command {
+        private final long sequence;
+        private final String kind;
+        private final long[] arguments;
+
+        // End of the command's record in the journal, durable once the journal has been forced up to it
+        private int position;
+
+        private Command(long sequence, String kind, long[] arguments) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.arguments = arguments.clone();
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        String getKind() {
+            return kind;
+        }
+
+        long getArgument(int index) {
+            return arguments[index];
+        }
+
+        private byte[] encode() {
+            final byte[] kindBytes = kind.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer data = ByteBuffer.allocate(2 + kindBytes.length + 1 + arguments.length * 8);
+            data.putShort((short) kindBytes.length).put(kindBytes).put((byte) arguments.length);
+            for (long argument : arguments) {
+                data.putLong(argument);
+            }
+            return data.array();
+        }
+
+        private static Command decode(long sequence, ByteBuffer data) {
+            try {
+                final byte[] kindBytes = new byte[data.getShort()];
+                data.get(kindBytes);
+                final long[] arguments = new long[data.get()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = data.getLong();
+                }
+                return new Command(sequence, new String(kindBytes, StandardCharsets.UTF_8), arguments);
+            } catch (BufferUnderflowException e) {
+                throw new IllegalStateException("Corrupt command " + sequence + " in journal", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s #%d %s %s]", getClass().getSimpleName(), sequence, kind, Arrays.toString(arguments));
+        }
+    }
+}
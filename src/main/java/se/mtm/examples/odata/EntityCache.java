@@ -0,0 +1,151 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.request.retrieve.ODataEntityRequest;
+import org.apache.olingo.client.api.communication.response.ODataRetrieveResponse;
+import org.apache.olingo.client.api.domain.ClientEntity;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Bounded read-through cache of entities, keyed by entity URI (i.e. entity set + key)
+ *
+ * Entries younger than the time to live are served without contacting the service. Older ones are
+ * revalidated with 'If-None-Match', so an unchanged entity costs a 304 response without any payload to parse.
+ * When the cache is full the least recently used entry is evicted.
+ *
+ * The ETags of cached entities can be used for updates, saving the GET otherwise needed before each update.
+ * Returned entities are shared with the cache and must not be modified.
+ */
+class EntityCache {
+
+    private final ODataClient client;
+    private final long timeToLiveMillis;
+    private final Map<String, CachedEntity> entries;
+
+    EntityCache(ODataClient client, int maxEntries, long timeToLiveMillis) {
+        this.client = client;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LruMap(maxEntries);
+    }
+
+    /**
+     * Get the entity at the given URI, from the cache if it's still valid
+     */
+    ClientEntity get(URI entityUri) {
+        final CachedEntity cached = lookup(entityUri);
+        if (cached != null && cached.entity != null && currentTimeMillis() - cached.validated < timeToLiveMillis) {
+            return cached.entity;
+        }
+
+        final ODataEntityRequest<ClientEntity> request = client.getRetrieveRequestFactory().getEntityRequest(entityUri);
+        final boolean revalidating = cached != null && cached.entity != null && cached.eTag != null;
+        if (revalidating) {
+            request.setIfNoneMatch(cached.eTag);
+        }
+        final ODataRetrieveResponse<ClientEntity> response = request.execute();
+
+        if (revalidating && response.getStatusCode() == 304) {
+            // Not modified, no need to even look at the (empty) response body
+            response.close();
+            put(entityUri, cached.entity, cached.eTag);
+            return cached.entity;
+        }
+
+        final ClientEntity entity = response.getBody();
+        put(entityUri, entity, response.getETag() != null ? response.getETag() : entity.getETag());
+        return entity;
+    }
+
+    /**
+     * Fetch the entity at the given URI from the service, whether or not it's cached, replacing any cached copy
+     */
+    ClientEntity refresh(URI entityUri) {
+        final ODataRetrieveResponse<ClientEntity> response = client.getRetrieveRequestFactory().getEntityRequest(entityUri).execute();
+        final ClientEntity entity = response.getBody();
+        put(entityUri, entity, response.getETag() != null ? response.getETag() : entity.getETag());
+        return entity;
+    }
+
+    /**
+     * Get the current ETag of the entity at the given URI, fetching the entity only if the ETag isn't cached
+     */
+    String getETag(URI entityUri) {
+        final CachedEntity cached = lookup(entityUri);
+        if (cached != null && cached.eTag != null) {
+            return cached.eTag;
+        }
+        get(entityUri);
+        final CachedEntity fetched = lookup(entityUri);
+        return fetched != null ? fetched.eTag : null;
+    }
+
+    /**
+     * Add (or replace) an entity we already have, e.g. the response of a create request
+     */
+    void put(URI entityUri, ClientEntity entity, String eTag) {
+        synchronized (entries) {
+            entries.put(entityUri.toASCIIString(), new CachedEntity(entity, eTag, currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Record that the entity has been updated - its content is no longer known, but the new ETag
+     * (if the update response had one) can be used for the next update
+     */
+    void updated(URI entityUri, String newETag) {
+        if (newETag == null) {
+            invalidate(entityUri);
+        } else {
+            put(entityUri, null, newETag);
+        }
+    }
+
+    void invalidate(URI entityUri) {
+        synchronized (entries) {
+            entries.remove(entityUri.toASCIIString());
+        }
+    }
+
+    private CachedEntity lookup(URI entityUri) {
+        synchronized (entries) {
+            return entries.get(entityUri.toASCIIString());
+        }
+    }
+
+    /**
+     * Entries in access order, evicting the least recently used one when there are too many
+     */
+    private static class LruMap extends LinkedHashMap<String, CachedEntity> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedEntity> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static class CachedEntity {
+        // Null if only the ETag is known
+        private final ClientEntity entity;
+        private final String eTag;
+        private final long validated;
+
+        CachedEntity(ClientEntity entity, String eTag, long validated) {
+            this.entity = entity;
+            this.eTag = eTag;
+            this.validated = validated;
+        }
+    }
+}
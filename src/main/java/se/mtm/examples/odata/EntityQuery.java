@@ -0,0 +1,214 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientEntitySet;
+import org.apache.olingo.client.api.domain.ClientProperty;
+import org.apache.olingo.client.api.uri.FilterFactory;
+import org.apache.olingo.client.api.uri.URIBuilder;
+import org.apache.olingo.client.api.uri.URIFilter;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static java.lang.System.out;
+
+/**
+ * Query against an entity set, with projection, filtering, ordering and counting done by the service
+ *
+ * Properties are referred to by typed {@link Property} descriptors, so comparisons against values of the
+ * wrong type don't compile. Anything that can't be expressed in OData may be added as a local filter -
+ * but that means transferring and parsing rows only to throw them away, so it's reported as a warning.
+ */
+class EntityQuery {
+
+    private final ODataClient client;
+    private final String serviceUrl;
+    private final String entitySetName;
+
+    private final List<String> selected = new ArrayList<>();
+    private final List<String> ordering = new ArrayList<>();
+    private URIFilter filter;
+    private Predicate<ClientEntity> localFilter;
+    private Integer top;
+    private Integer skip;
+    private boolean count;
+
+    EntityQuery(ODataClient client, String serviceUrl, String entitySetName) {
+        this.client = client;
+        this.serviceUrl = serviceUrl;
+        this.entitySetName = entitySetName;
+    }
+
+    //// Projection ////
+
+    /**
+     * Only transfer the given properties ($select)
+     */
+    EntityQuery select(Property<?>... properties) {
+        for (Property<?> property : properties) {
+            selected.add(property.getName());
+        }
+        return this;
+    }
+
+    //// Filtering ////
+
+    <T> EntityQuery whereEq(Property<T> property, T value) {
+        return where(filters().eq(property.getName(), value));
+    }
+
+    <T> EntityQuery whereNe(Property<T> property, T value) {
+        return where(filters().ne(property.getName(), value));
+    }
+
+    <T extends Comparable<T>> EntityQuery whereGt(Property<T> property, T value) {
+        return where(filters().gt(property.getName(), value));
+    }
+
+    <T extends Comparable<T>> EntityQuery whereGe(Property<T> property, T value) {
+        return where(filters().ge(property.getName(), value));
+    }
+
+    <T extends Comparable<T>> EntityQuery whereLt(Property<T> property, T value) {
+        return where(filters().lt(property.getName(), value));
+    }
+
+    <T extends Comparable<T>> EntityQuery whereLe(Property<T> property, T value) {
+        return where(filters().le(property.getName(), value));
+    }
+
+    /**
+     * Add a filter built with Olingo's {@link FilterFactory} (combined with any previous filter using 'and')
+     */
+    EntityQuery where(URIFilter condition) {
+        filter = filter == null ? condition : filters().and(filter, condition);
+        return this;
+    }
+
+    /**
+     * Filter the fetched entities in Java - only for conditions the service can't evaluate
+     */
+    EntityQuery whereLocally(String description, Predicate<ClientEntity> condition) {
+        out.println("Warning: filtering " + entitySetName + " on the client side (" + description + "), "
+                + "all rows are transferred and parsed - use a server side filter if possible");
+        localFilter = localFilter == null ? condition : localFilter.and(condition);
+        return this;
+    }
+
+    //// Ordering, paging, counting ////
+
+    EntityQuery orderBy(Property<?> property) {
+        ordering.add(property.getName());
+        return this;
+    }
+
+    EntityQuery orderByDescending(Property<?> property) {
+        ordering.add(property.getName() + " desc");
+        return this;
+    }
+
+    EntityQuery top(int top) {
+        this.top = top;
+        return this;
+    }
+
+    EntityQuery skip(int skip) {
+        this.skip = skip;
+        return this;
+    }
+
+    /**
+     * Ask the service for the total number of matching entities ($count), see {@link ClientEntitySet#getCount()}
+     */
+    EntityQuery withCount() {
+        this.count = true;
+        return this;
+    }
+
+    //// Execution ////
+
+    URI toUri() {
+        final URIBuilder uriBuilder = client.newURIBuilder(serviceUrl).appendEntitySetSegment(entitySetName);
+        if (!selected.isEmpty()) {
+            uriBuilder.select(selected.toArray(new String[0]));
+        }
+        if (filter != null) {
+            uriBuilder.filter(filter);
+        }
+        if (!ordering.isEmpty()) {
+            uriBuilder.orderBy(String.join(",", ordering));
+        }
+        if (skip != null) {
+            uriBuilder.skip(skip);
+        }
+        if (top != null) {
+            uriBuilder.top(top);
+        }
+        if (count) {
+            uriBuilder.count(true);
+        }
+        return uriBuilder.build();
+    }
+
+    /**
+     * Fetch the matching entities (one response, server-driven paging is not followed)
+     */
+    ClientEntitySet execute() {
+        if (selected.isEmpty() && top == null) {
+            out.println("Warning: fetching complete entities of all " + entitySetName + ", consider select() and top()");
+        }
+        final ClientEntitySet entitySet = client.getRetrieveRequestFactory().getEntitySetRequest(toUri()).execute().getBody();
+        if (localFilter != null) {
+            entitySet.getEntities().removeIf(localFilter.negate());
+        }
+        return entitySet;
+    }
+
+    /**
+     * Fetch the matching entities, returning them as a list
+     */
+    List<ClientEntity> list() {
+        return execute().getEntities();
+    }
+
+    private FilterFactory filters() {
+        return client.getFilterFactory();
+    }
+
+    /**
+     * Typed reference to a (primitive) property of an entity type
+     */
+    static final class Property<T> {
+        private final String name;
+        private final Class<T> type;
+
+        private Property(String name, Class<T> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        static <T> Property<T> of(String name, Class<T> type) {
+            return new Property<>(name, type);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Read this property of an entity as its Java type (null if missing or null)
+         */
+        T valueOf(ClientEntity entity) {
+            final ClientProperty property = entity.getProperty(name);
+            return property == null || property.hasNullValue() ? null : type.cast(property.getPrimitiveValue().toValue());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports all members of an entity set to a gzip-compressed CSV file
+ *
+ * The columns are the primitive properties of the entity type, in the order declared in the Entity Data Model
+ * (complex and collection properties are left out). Next to the CSV file a '.schema' file lists each column's
+ * EDM type and nullability, so the file can be loaded with the right types.
+ *
+ * Fetching and writing overlap: the calling thread reads pages (decoding each response as it arrives, see
+ * {@link StreamingEntitySetReader}), and a writer thread formats and compresses the pages read before. A couple
+ * of pages may be waiting at a time, so a slow disk holds back fetching instead of filling up memory. Each page
+ * request is recorded as 'GET &lt;set&gt; (export)', and its rows are only handed to the writer once it's done -
+ * waiting for the writer doesn't hold back other requests.
+ */
+class EntitySetExporter {
+
+    // Pages read but not yet written - enough to smooth out uneven pages, few enough to bound memory
+    private static final int QUEUED_PAGES = 2;
+
+    private static final List<String[]> END = Collections.emptyList();
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final String serviceUrl;
+    private final String entitySetName;
+    private final List<EdmProperty> columns = new ArrayList<>();
+    private final String keyProperty;
+    private final String operation;
+
+    EntitySetExporter(ODataClient client, RequestRecorder recorder, String serviceUrl, Edm edm, String entitySetName) {
+        this.client = client;
+        this.recorder = recorder;
+        this.serviceUrl = serviceUrl;
+        this.entitySetName = entitySetName;
+
+        final EdmEntitySet entitySet = edm.getEntityContainer().getEntitySet(entitySetName);
+        if (entitySet == null) {
+            throw new IllegalArgumentException("No entity set " + entitySetName + " in the Entity Data Model");
+        }
+        final EdmEntityType entityType = entitySet.getEntityType();
+        for (String name : entityType.getPropertyNames()) {
+            final EdmProperty property = entityType.getStructuralProperty(name);
+            if (property.isPrimitive() && !property.isCollection()) {
+                columns.add(property);
+            }
+        }
+
+        // Pages are read with keyset paging, which needs a single integer key
+        final List<String> keys = entityType.getKeyPredicateNames();
+        final EdmType keyType = keys.size() == 1 ? entityType.getStructuralProperty(keys.get(0)).getType() : null;
+        if (keyType == null || !isIntegral(keyType)) {
+            throw new IllegalArgumentException("Can only export entity sets with a single integer key: " + entitySetName);
+        }
+        this.keyProperty = keys.get(0);
+        this.operation = "GET " + entitySetName + " (export)";
+    }
+
+    /**
+     * Write all members of the entity set to the given file (replacing it once complete), returning the number of rows
+     */
+    long export(Path file, int pageSize) {
+        final Path directory = file.toAbsolutePath().getParent();
+        final ExecutorService writerThread = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, entitySetName + "-export-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Path written = null;
+        try {
+            Files.createDirectories(directory);
+            written = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            writeSchema(file.resolveSibling(file.getFileName() + ".schema"));
+
+            final BlockingQueue<List<String[]>> pages = new ArrayBlockingQueue<>(QUEUED_PAGES);
+            final Path csvFile = written;
+            final Future<Long> writer = writerThread.submit(() -> write(csvFile, pages));
+
+            final StreamingEntitySetReader<String[]> reader = new StreamingEntitySetReader<>(keyProperty);
+            for (int i = 0; i < columns.size(); i++) {
+                final int column = i;
+                reader.bindString(columns.get(i).getName(), (row, value) -> row[column] = value);
+            }
+            // Rows are copied, as the reader reuses its row
+            final List<String[]> pageRows = new ArrayList<>(pageSize);
+            reader.readAll(client, serviceUrl, entitySetName, pageSize, new String[columns.size()], row -> pageRows.add(row.clone()), page -> {
+                final StreamingEntitySetReader.Page read = recorder.call(operation, page);
+                if (!pageRows.isEmpty()) {
+                    hand(new ArrayList<>(pageRows), pages, writer);
+                    pageRows.clear();
+                }
+                return read;
+            });
+            hand(END, pages, writer);
+
+            final long rows = await(writer);
+            Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to export " + entitySetName + " to " + file, e);
+        } finally {
+            writerThread.shutdownNow();
+            deleteIfExists(written);
+        }
+    }
+
+    /**
+     * Names of the exported columns, in file order
+     */
+    List<String> getColumnNames() {
+        final List<String> names = new ArrayList<>();
+        for (EdmProperty column : columns) {
+            names.add(column.getName());
+        }
+        return names;
+    }
+
+    //// Stages ////
+
+    /**
+     * Pass a page of rows to the writer, waiting while it's behind (unless it has failed)
+     */
+    private static void hand(List<String[]> page, BlockingQueue<List<String[]>> pages, Future<Long> writer) {
+        try {
+            while (!pages.offer(page, 100, TimeUnit.MILLISECONDS)) {
+                if (writer.isDone()) {
+                    await(writer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting", e);
+        }
+    }
+
+    private long write(Path file, BlockingQueue<List<String[]>> pages) throws IOException, InterruptedException {
+        long rows = 0;
+        try (OutputStream fileOut = Files.newOutputStream(file);
+             Writer csv = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(fileOut, 64 * 1024), StandardCharsets.UTF_8), 64 * 1024)) {
+            writeRow(csv, getColumnNames().toArray(new String[0]));
+            for (List<String[]> page = pages.take(); page != END; page = pages.take()) {
+                for (String[] row : page) {
+                    writeRow(csv, row);
+                }
+                rows += page.size();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Write a CSV row (RFC 4180): null as an empty field, quoting fields containing separators, quotes or
+     * line breaks - and empty strings, to tell them from null
+     */
+    private static void writeRow(Writer csv, String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                csv.write(',');
+            }
+            final String value = row[i];
+            if (value == null) {
+                continue;
+            }
+            if (value.isEmpty() || needsQuotes(value)) {
+                csv.write('"');
+                csv.write(value.replace("\"", "\"\""));
+                csv.write('"');
+            } else {
+                csv.write(value);
+            }
+        }
+        csv.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeSchema(Path schemaFile) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add("column,type,nullable");
+        for (EdmProperty column : columns) {
+            lines.add(column.getName() + "," + column.getType().getFullQualifiedName().getFullQualifiedNameAsString() + "," + column.isNullable());
+        }
+        Files.write(schemaFile, lines, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isIntegral(EdmType type) {
+        final String name = type.getFullQualifiedName().getFullQualifiedNameAsString();
+        return name.equals(EdmPrimitiveTypeKind.Int16.getFullQualifiedName().getFullQualifiedNameAsString())
+                || name.equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName().getFullQualifiedNameAsString())
+                || name.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName().getFullQualifiedNameAsString());
+    }
+
+    private static void deleteIfExists(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Left behind as a .tmp file, harmless
+        }
+    }
+
+    private static long await(Future<Long> writer) {
+        try {
+            return writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException("Failed to write export", (IOException) e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to write export", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientEntitySet;
+import org.apache.olingo.client.api.uri.URIBuilder;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iterator over all members of an entity set
+ *
+ * Pages are requested ordered by the key property. Server-driven paging ('@odata.nextLink') is followed
+ * when the service provides it, otherwise the next page is requested with a key filter ("keyset paging")
+ * starting after the last key seen - which unlike $skip does not get slower the deeper into the set we get.
+ *
+ * The next page is fetched in the background while the current one is consumed, so at most two pages are
+ * held in memory regardless of the size of the entity set. Each page request is recorded (and throttled) on its own.
+ */
+class EntitySetPager implements Iterator<ClientEntity>, AutoCloseable {
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final String serviceUrl;
+    private final String entitySetName;
+    private final String keyProperty;
+    private final int pageSize;
+    private final String operation;
+
+    // Single background thread fetching the upcoming page
+    private final ExecutorService prefetcher;
+
+    private Iterator<ClientEntity> currentPage;
+    private Future<ClientEntitySet> nextPage;
+
+    // Number of entities received since the last keyset (non-nextLink) query
+    private int windowCount;
+
+    EntitySetPager(ODataClient client, RequestRecorder recorder, String serviceUrl, String entitySetName, String keyProperty, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.client = client;
+        this.recorder = recorder;
+        this.serviceUrl = serviceUrl;
+        this.entitySetName = entitySetName;
+        this.keyProperty = keyProperty;
+        this.pageSize = pageSize;
+        this.operation = "GET " + entitySetName;
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, entitySetName + "-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.currentPage = Collections.emptyIterator();
+        this.nextPage = fetch(keysetPageUri(null));
+    }
+
+    /**
+     * Expose the pager as a sequential stream (closing the stream stops any ongoing prefetch)
+     */
+    Stream<ClientEntity> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (nextPage == null) {
+                return false;
+            }
+            advance();
+        }
+        return true;
+    }
+
+    @Override
+    public ClientEntity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    @Override
+    public void close() {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+        prefetcher.shutdownNow();
+    }
+
+    //// Paging ////
+
+    /**
+     * Wait for the prefetched page, then immediately start fetching the one after it
+     */
+    private void advance() {
+        final ClientEntitySet page = await(nextPage);
+        final List<ClientEntity> entities = page.getEntities();
+        windowCount += entities.size();
+
+        if (page.getNext() != null) {
+            // Server-driven paging
+            nextPage = fetch(page.getNext());
+        } else if (windowCount >= pageSize && !entities.isEmpty()) {
+            // Full page, continue after the last key of this page
+            final Object pageLastKey = entities.get(entities.size() - 1).getProperty(keyProperty).getPrimitiveValue().toValue();
+            windowCount = 0;
+            nextPage = fetch(keysetPageUri(pageLastKey));
+        } else {
+            // Partial page means we've reached the end of the entity set
+            nextPage = null;
+            prefetcher.shutdown();
+        }
+        currentPage = entities.iterator();
+    }
+
+    /**
+     * URI of the page starting after the given key (or the first page if no key is given)
+     */
+    private URI keysetPageUri(Object afterKey) {
+        final URIBuilder uriBuilder =
+                client.newURIBuilder(serviceUrl).appendEntitySetSegment(entitySetName).orderBy(keyProperty).top(pageSize);
+        if (afterKey != null) {
+            uriBuilder.filter(client.getFilterFactory().gt(keyProperty, afterKey));
+        }
+        return uriBuilder.build();
+    }
+
+    private Future<ClientEntitySet> fetch(URI pageUri) {
+        return prefetcher.submit(() -> recorder.call(operation,
+                () -> client.getRetrieveRequestFactory().getEntitySetRequest(pageUri).execute().getBody()));
+    }
+
+    private static ClientEntitySet await(Future<ClientEntitySet> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for next page", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to fetch next page", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.request.retrieve.ODataEntitySetRequest;
+import org.apache.olingo.client.api.communication.response.ODataRetrieveResponse;
+import org.apache.olingo.client.api.domain.ClientDeletedEntity;
+import org.apache.olingo.client.api.domain.ClientDelta;
+import org.apache.olingo.client.api.domain.ClientEntity;
+import org.apache.olingo.client.api.domain.ClientEntitySet;
+import org.apache.olingo.client.api.domain.ClientPrimitiveValue;
+import org.apache.olingo.client.api.domain.ClientProperty;
+import org.apache.olingo.client.api.uri.URIBuilder;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.out;
+
+/**
+ * Incrementally mirrors an entity set into a {@link SyncStore}
+ *
+ * If the service tracks changes, the first sync asks for it ('Prefer: odata.track-changes') and each sync
+ * after that only fetches the changes - including deletions - since the delta link saved last time.
+ *
+ * Otherwise entities modified since the last sync are found with a high-water mark on their modification
+ * timestamp. That can't see deleted entities though, so they're found by comparing keys with
+ * {@link #reconcileDeletes}, which only transfers the keys of all entities.
+ *
+ * Each page request is recorded on its own, as 'GET &lt;set&gt; (sync)' - or 'GET &lt;set&gt; (reconcile)' when
+ * reading the keys.
+ */
+class EntitySetSync {
+
+    private static final String MODE = "mode";
+    private static final String DELTA = "delta";
+    private static final String HIGH_WATER_MARK = "highWaterMark";
+    private static final String DELTA_LINK = "deltaLink";
+    private static final String MODIFIED_SINCE = "modifiedSince";
+    private static final String LAST_KEY = "lastKey";
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final String serviceUrl;
+    private final String entitySetName;
+    private final String keyProperty;
+    private final String modifiedProperty;
+    private final int pageSize;
+    private final String operation;
+    private final String reconcileOperation;
+
+    /**
+     * @param keyProperty      integer key of the entity type
+     * @param modifiedProperty timestamp updated on every change (Edm.DateTimeOffset), for services not tracking changes
+     */
+    EntitySetSync(ODataClient client, RequestRecorder recorder, String serviceUrl, String entitySetName, String keyProperty,
+                  String modifiedProperty, int pageSize) {
+        this.client = client;
+        this.recorder = recorder;
+        this.serviceUrl = serviceUrl;
+        this.entitySetName = entitySetName;
+        this.keyProperty = keyProperty;
+        this.modifiedProperty = modifiedProperty;
+        this.pageSize = pageSize;
+        this.operation = "GET " + entitySetName + " (sync)";
+        this.reconcileOperation = "GET " + entitySetName + " (reconcile)";
+    }
+
+    /**
+     * Bring the store up to date, with a full sync the first time (or if the service forgot our delta link)
+     */
+    Result sync(SyncStore store) {
+        final Properties token = store.getSyncToken();
+        if (token == null) {
+            return fullSync(store);
+        }
+        if (DELTA.equals(token.getProperty(MODE))) {
+            try {
+                return deltaSync(store, URI.create(token.getProperty(DELTA_LINK)));
+            } catch (ODataClientErrorException e) {
+                // Delta links expire (410 Gone), or may be rejected after a service upgrade (400, 404) - other
+                // errors (e.g. 401, 403, 429) say nothing about the link, and a full sync wouldn't fare better
+                if (!isDeltaLinkRejected(e.getStatusLine().getStatusCode())) {
+                    throw e;
+                }
+                out.println("Delta link of " + entitySetName + " no longer accepted (" + e.getMessage() + "), syncing all");
+                return fullSync(store);
+            }
+        }
+        return highWaterMarkSync(store, token.getProperty(MODIFIED_SINCE), Long.parseLong(token.getProperty(LAST_KEY, "0")), false);
+    }
+
+    /**
+     * Delete stored entities no longer in the service (only needed when changes aren't tracked)
+     */
+    Result reconcileDeletes(SyncStore store) {
+        final Properties token = store.getSyncToken();
+        if (token == null) {
+            throw new IllegalStateException("Nothing synced into the store yet, sync " + entitySetName + " before reconciling deletes");
+        }
+        final Set<Long> remoteKeys = new HashSet<>();
+        new StreamingEntitySetReader<long[]>(keyProperty).bindLong(keyProperty, (key, value) -> key[0] = value)
+                .readAll(client, serviceUrl, entitySetName, pageSize, new long[1], key -> remoteKeys.add(key[0]),
+                        page -> recorder.call(reconcileOperation, page));
+
+        final Result result = new Result(false, false);
+        for (Long key : store.keys()) {
+            if (!remoteKeys.contains(key)) {
+                store.delete(key);
+                result.deleted++;
+            }
+        }
+        store.commit(token);
+        return result;
+    }
+
+    //// Sync modes ////
+
+    private Result fullSync(SyncStore store) {
+        store.clear();
+
+        final ODataEntitySetRequest<ClientEntitySet> request = client.getRetrieveRequestFactory().getEntitySetRequest(
+                client.newURIBuilder(serviceUrl).appendEntitySetSegment(entitySetName).build());
+        request.setPrefer(client.newPreferences().trackChanges());
+        ClientEntitySet page = recorder.call(operation, () -> {
+            final ODataRetrieveResponse<ClientEntitySet> response = request.execute();
+            if (!isTrackingChanges(response)) {
+                response.close();
+                return null;
+            }
+            return response.getBody();
+        });
+        if (page == null) {
+            out.println(entitySetName + " doesn't track changes, syncing by " + modifiedProperty);
+            return highWaterMarkSync(store, null, 0, true);
+        }
+
+        final Result result = new Result(true, true);
+        while (true) {
+            page.getEntities().forEach(entity -> upsert(store, entity, result));
+            if (page.getNext() == null) {
+                break;
+            }
+            page = fetchPage(page.getNext());
+        }
+        commitDeltaLink(store, page.getDeltaLink());
+        return result;
+    }
+
+    private Result deltaSync(SyncStore store, URI deltaLink) {
+        final Result result = new Result(true, false);
+        ClientDelta delta = fetchDelta(deltaLink);
+        while (true) {
+            delta.getEntities().forEach(entity -> upsert(store, entity, result));
+            for (ClientDeletedEntity deleted : delta.getDeletedEntities()) {
+                store.delete(keyOf(deleted.getId()));
+                result.deleted++;
+            }
+            if (delta.getNext() == null) {
+                break;
+            }
+            delta = fetchDelta(delta.getNext());
+        }
+        commitDeltaLink(store, delta.getDeltaLink());
+        return result;
+    }
+
+    /**
+     * Fetch entities modified after the given mark, in order of modification (ties broken by key)
+     */
+    private Result highWaterMarkSync(SyncStore store, String modifiedSince, long lastKey, boolean full) {
+        final Result result = new Result(false, full);
+        String mark = modifiedSince;
+        long markKey = lastKey;
+        while (true) {
+            final URIBuilder uriBuilder = client.newURIBuilder(serviceUrl)
+                    .appendEntitySetSegment(entitySetName)
+                    .orderBy(modifiedProperty + "," + keyProperty)
+                    .top(pageSize);
+            if (mark != null) {
+                // DateTimeOffset literals are written without quotes
+                uriBuilder.filter(String.format("%1$s gt %2$s or (%1$s eq %2$s and %3$s gt %4$d)", modifiedProperty, mark, keyProperty, markKey));
+            }
+            final ClientEntitySet page = fetchPage(uriBuilder.build());
+
+            for (ClientEntity entity : page.getEntities()) {
+                upsert(store, entity, result);
+                mark = entity.getProperty(modifiedProperty).getPrimitiveValue().toString();
+                markKey = keyOf(entity);
+            }
+            // A short page is the last one, unless the service cut it short with a next link of its own
+            if (page.getEntities().isEmpty() || (page.getEntities().size() < pageSize && page.getNext() == null)) {
+                break;
+            }
+        }
+
+        final Properties token = new Properties();
+        token.setProperty(MODE, HIGH_WATER_MARK);
+        if (mark != null) {
+            token.setProperty(MODIFIED_SINCE, mark);
+            token.setProperty(LAST_KEY, Long.toString(markKey));
+        }
+        token.setProperty("synced", Long.toString(currentTimeMillis()));
+        store.commit(token);
+        return result;
+    }
+
+    //// Helpers ////
+
+    private ClientEntitySet fetchPage(URI pageUri) {
+        return recorder.call(operation, () -> client.getRetrieveRequestFactory().getEntitySetRequest(pageUri).execute().getBody());
+    }
+
+    private ClientDelta fetchDelta(URI deltaLink) {
+        return recorder.call(operation, () -> client.getRetrieveRequestFactory().getDeltaRequest(deltaLink).execute().getBody());
+    }
+
+    private boolean isTrackingChanges(ODataRetrieveResponse<?> response) {
+        final Collection<String> applied = response.getHeader("Preference-Applied");
+        return applied != null && applied.stream().anyMatch(preference -> preference.contains("odata.track-changes"));
+    }
+
+    private void commitDeltaLink(SyncStore store, URI deltaLink) {
+        if (deltaLink == null) {
+            throw new IllegalStateException("Service tracks changes of " + entitySetName + " but returned no delta link");
+        }
+        final Properties token = new Properties();
+        token.setProperty(MODE, DELTA);
+        token.setProperty(DELTA_LINK, deltaLink.toString());
+        token.setProperty("synced", Long.toString(currentTimeMillis()));
+        store.commit(token);
+    }
+
+    private void upsert(SyncStore store, ClientEntity entity, Result result) {
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        for (ClientProperty property : entity.getProperties()) {
+            if (property.hasNullValue()) {
+                properties.put(property.getName(), null);
+            } else if (property.hasPrimitiveValue()) {
+                properties.put(property.getName(), jsonValueOf(property.getPrimitiveValue()));
+            }
+        }
+        store.upsert(keyOf(entity), properties);
+        result.upserted++;
+    }
+
+    private static Object jsonValueOf(ClientPrimitiveValue value) {
+        final Object javaValue = value.toValue();
+        return javaValue instanceof Number || javaValue instanceof Boolean || javaValue instanceof String
+                ? javaValue
+                : value.toString();
+    }
+
+    private long keyOf(ClientEntity entity) {
+        return ((Number) entity.getProperty(keyProperty).getPrimitiveValue().toValue()).longValue();
+    }
+
+    /**
+     * Key of a deleted entity, from its id - e.g. 'http://.../Borrowers(123)'
+     */
+    private static long keyOf(URI entityId) {
+        final String id = entityId.toString();
+        return Long.parseLong(id.substring(id.lastIndexOf('(') + 1, id.lastIndexOf(')')));
+    }
+
+    private static boolean isDeltaLinkRejected(int statusCode) {
+        return statusCode == 410 || statusCode == 400 || statusCode == 404;
+    }
+
+    /**
+     * Summary of a sync
+     */
+    static class Result {
+        private final boolean delta;
+        private final boolean full;
+        private int upserted;
+        private int deleted;
+
+        private Result(boolean delta, boolean full) {
+            this.delta = delta;
+            this.full = full;
+        }
+
+        /**
+         * If changes were found through a delta link (rather than a high-water mark)
+         */
+        boolean isDelta() {
+            return delta;
+        }
+
+        boolean isFull() {
+            return full;
+        }
+
+        int getUpserted() {
+            return upserted;
+        }
+
+        int getDeleted() {
+            return deleted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s sync: %d upserted, %d deleted",
+                    full ? "full " : "", delta ? "delta" : "high-water mark", upserted, deleted);
+        }
+    }
+}
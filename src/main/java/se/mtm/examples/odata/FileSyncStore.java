@@ -0,0 +1,255 @@
+package se.mtm.examples.odata;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sync store kept in memory, saved as a JSON snapshot plus a log of the commits since
+ *
+ * A commit appends a single line to the change log - the entities changed since the last commit and the new
+ * sync token - so an hourly sync of a few changes costs a few changes' worth of writing, however large the
+ * set. Once the log has grown larger than the snapshot (or after a full sync) the snapshot is rewritten,
+ * replacing the log; the properties file beside it holds the snapshot's sync token.
+ *
+ * Opening the store reads the snapshot and replays the log. A line torn by a crash was never committed and
+ * is dropped. Replaying is idempotent (the last change of each entity wins), and a crash while rewriting the
+ * snapshot leaves at worst an older token behind - so at worst a change is applied twice, which upserts and
+ * deletes tolerate. Suitable for hundreds of thousands of entities held in memory; a larger set calls for a
+ * database behind the same interface.
+ */
+class FileSyncStore implements SyncStore {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // Below this the log isn't worth compacting, however small the snapshot
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final Path entitiesFile;
+    private final Path tokenFile;
+    private final Path logFile;
+    private final Map<Long, Map<String, Object>> entities;
+    private Properties syncToken;
+
+    // Changes since the last commit, null properties for a deletion
+    private final Map<Long, Map<String, Object>> changes = new LinkedHashMap<>();
+    // Set by clear(), or when the log may end with a torn line: the next commit rewrites the snapshot
+    private boolean rewrite;
+    private long logSize;
+    private long snapshotSize;
+
+    /**
+     * Open (or create) the store with the given name in a directory
+     */
+    FileSyncStore(Path directory, String name) {
+        this.entitiesFile = directory.resolve(name + ".json");
+        this.tokenFile = directory.resolve(name + ".sync.properties");
+        this.logFile = directory.resolve(name + ".changes");
+        try {
+            Files.createDirectories(directory);
+            this.syncToken = readToken(tokenFile);
+            if (syncToken != null && Files.isRegularFile(entitiesFile)) {
+                this.entities = JSON.readValue(entitiesFile.toFile(), new TypeReference<TreeMap<Long, Map<String, Object>>>() {});
+                this.snapshotSize = Files.size(entitiesFile);
+            } else {
+                this.entities = new TreeMap<>();
+            }
+            replayLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open sync store " + entitiesFile, e);
+        }
+    }
+
+    @Override
+    public synchronized Properties getSyncToken() {
+        return syncToken;
+    }
+
+    @Override
+    public synchronized void upsert(long key, Map<String, Object> properties) {
+        entities.put(key, properties);
+        changes.put(key, properties);
+    }
+
+    @Override
+    public synchronized void delete(long key) {
+        entities.remove(key);
+        changes.put(key, null);
+    }
+
+    @Override
+    public synchronized Set<Long> keys() {
+        return Collections.unmodifiableSet(new HashSet<>(entities.keySet()));
+    }
+
+    /**
+     * Properties of a stored entity, or null
+     */
+    synchronized Map<String, Object> get(long key) {
+        return entities.get(key);
+    }
+
+    synchronized int size() {
+        return entities.size();
+    }
+
+    @Override
+    public synchronized void commit(Properties syncToken) {
+        // Checked before anything is written, so a commit is never left half done
+        Objects.requireNonNull(syncToken, "syncToken");
+        try {
+            if (rewrite || logSize > Math.max(snapshotSize, MIN_COMPACTION_SIZE)) {
+                writeSnapshot(syncToken);
+            } else {
+                appendToLog(syncToken);
+            }
+        } catch (IOException e) {
+            // The log may end with part of the line, only a new snapshot is sure to be readable
+            rewrite = true;
+            throw new UncheckedIOException("Failed to commit sync store " + entitiesFile, e);
+        }
+        changes.clear();
+        rewrite = false;
+        this.syncToken = syncToken;
+    }
+
+    @Override
+    public synchronized void clear() {
+        entities.clear();
+        changes.clear();
+        rewrite = true;
+    }
+
+    //// Files ////
+
+    /**
+     * Append a commit to the log, as '{"token": {...}, "changes": {"key": {...} or null, ...}}' on one line
+     */
+    private void appendToLog(Properties syncToken) throws IOException {
+        final Map<String, Object> commit = new LinkedHashMap<>();
+        commit.put("token", syncToken);
+        commit.put("changes", changes);
+        final byte[] json = JSON.writeValueAsBytes(commit);
+        final byte[] line = Arrays.copyOf(json, json.length + 1);
+        line[json.length] = '\n';
+
+        try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        }
+        logSize += line.length;
+    }
+
+    /**
+     * Replace the snapshot with all entities, and drop the log
+     *
+     * The log goes before the snapshot is replaced, so it's never replayed over a snapshot that (after a full
+     * sync) no longer holds its changes. The token goes last, so after a crash it's at worst older than the
+     * snapshot.
+     */
+    private void writeSnapshot(Properties syncToken) throws IOException {
+        final Path written = Files.createTempFile(entitiesFile.getParent(), entitiesFile.getFileName().toString(), ".tmp");
+        try (OutputStream snapshotOut = new BufferedOutputStream(Files.newOutputStream(written), 64 * 1024)) {
+            JSON.writeValue(snapshotOut, entities);
+        }
+        try (FileChannel snapshot = FileChannel.open(written, StandardOpenOption.WRITE)) {
+            snapshot.force(false);
+        }
+        Files.deleteIfExists(logFile);
+        logSize = 0;
+        Files.move(written, entitiesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotSize = Files.size(entitiesFile);
+
+        final Path writtenToken = Files.createTempFile(tokenFile.getParent(), tokenFile.getFileName().toString(), ".tmp");
+        try (OutputStream tokenOut = Files.newOutputStream(writtenToken)) {
+            syncToken.store(tokenOut, "Where the next sync continues");
+        }
+        Files.move(writtenToken, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Apply the commits of the log to the snapshot read, cutting off a line torn by a crash
+     */
+    private void replayLog() throws IOException {
+        if (!Files.isRegularFile(logFile)) {
+            return;
+        }
+        final byte[] log = Files.readAllBytes(logFile);
+        int lineStart = 0;
+        for (int lineEnd = indexOf(log, '\n', 0); lineEnd >= 0; lineEnd = indexOf(log, '\n', lineStart)) {
+            final Map<String, Object> commit;
+            try {
+                commit = JSON.readValue(Arrays.copyOfRange(log, lineStart, lineEnd), new TypeReference<Map<String, Object>>() {});
+            } catch (JsonProcessingException e) {
+                break;
+            }
+            apply(commit);
+            lineStart = lineEnd + 1;
+        }
+        logSize = lineStart;
+        if (lineStart < log.length) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(lineStart);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(Map<String, Object> commit) {
+        for (Map.Entry<String, Object> change : ((Map<String, Object>) commit.get("changes")).entrySet()) {
+            final long key = Long.parseLong(change.getKey());
+            if (change.getValue() == null) {
+                entities.remove(key);
+            } else {
+                entities.put(key, (Map<String, Object>) change.getValue());
+            }
+        }
+        final Properties token = new Properties();
+        token.putAll((Map<String, Object>) commit.get("token"));
+        syncToken = token;
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Properties readToken(Path tokenFile) throws IOException {
+        if (!Files.isRegularFile(tokenFile)) {
+            return null;
+        }
+        final Properties token = new Properties();
+        try (InputStream in = Files.newInputStream(tokenFile)) {
+            token.load(in);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,224 @@
+package se.mtm.examples.odata;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.System.out;
+
+/**
+ * Request metrics kept in memory per operation, and published as MXBeans
+ *
+ * Each operation shows up in JConsole/VisualVM (or any JMX collector) as
+ * 'se.mtm.examples.odata:type=RequestMetrics,client=&lt;client name&gt;,operation=&lt;operation&gt;'.
+ * A summary of all operations can also be printed periodically.
+ */
+class JmxRequestMetrics implements RequestMetrics, AutoCloseable {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String clientName;
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService summaryPrinter;
+
+    /**
+     * @param clientName distinguishes the metrics of different clients in the same JVM
+     */
+    JmxRequestMetrics(String clientName) {
+        this.clientName = clientName;
+    }
+
+    @Override
+    public void requestCompleted(String operation, long latencyNanos, int statusCode, long bytesSent, long bytesReceived, boolean failed) {
+        final OperationMetrics metrics = metricsOf(operation);
+        metrics.latencies.record(latencyNanos);
+        metrics.requests.increment();
+        if (failed) {
+            metrics.failures.increment();
+        }
+        metrics.bytesSent.add(bytesSent);
+        metrics.bytesReceived.add(bytesReceived);
+        if (statusCode > 0) {
+            metrics.statusCounts.computeIfAbsent(statusCode, status -> new LongAdder()).increment();
+        }
+    }
+
+    @Override
+    public void requestRetried(String operation) {
+        metricsOf(operation).retries.increment();
+    }
+
+    //// Summary ////
+
+    /**
+     * Table of all operations (latencies in milliseconds)
+     */
+    String summary() {
+        final StringBuilder summary = new StringBuilder(String.format("# Request metrics of %s%n", clientName));
+        summary.append(String.format("%-50s %8s %8s %8s %9s %9s %9s %9s %10s %10s  %s%n",
+                "Operation", "Requests", "Failures", "Retries", "p50", "p90", "p99", "Max", "KB sent", "KB recv", "Statuses"));
+        new TreeMap<>(operations).forEach((operation, metrics) -> summary.append(String.format(
+                "%-50s %8d %8d %8d %9.1f %9.1f %9.1f %9.1f %10.1f %10.1f  %s%n",
+                operation, metrics.getRequests(), metrics.getFailures(), metrics.getRetries(),
+                metrics.getLatencyP50Millis(), metrics.getLatencyP90Millis(), metrics.getLatencyP99Millis(), metrics.getMaxLatencyMillis(),
+                metrics.getBytesSent() / 1024.0, metrics.getBytesReceived() / 1024.0, metrics.getStatusCounts())));
+        return summary.toString();
+    }
+
+    /**
+     * Print the summary at a fixed interval, until closed
+     */
+    synchronized void printSummaryEvery(long interval, TimeUnit unit) {
+        if (summaryPrinter == null) {
+            summaryPrinter = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "request-metrics-summary");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        summaryPrinter.scheduleAtFixedRate(() -> out.println(summary()), interval, interval, unit);
+    }
+
+    /**
+     * Stop printing summaries and unregister the MXBeans
+     */
+    @Override
+    public synchronized void close() {
+        if (summaryPrinter != null) {
+            summaryPrinter.shutdownNow();
+            summaryPrinter = null;
+        }
+        for (OperationMetrics metrics : operations.values()) {
+            if (metrics.objectName == null) {
+                // Never registered (e.g. the name was taken by another client's metrics), nothing to unregister
+                continue;
+            }
+            try {
+                mBeanServer.unregisterMBean(metrics.objectName);
+            } catch (JMException e) {
+                // Already gone
+            }
+        }
+        operations.clear();
+    }
+
+    //// Per operation ////
+
+    private OperationMetrics metricsOf(String operation) {
+        final OperationMetrics existing = operations.get(operation);
+        return existing != null ? existing : operations.computeIfAbsent(operation, this::register);
+    }
+
+    private OperationMetrics register(String operation) {
+        final OperationMetrics metrics;
+        try {
+            metrics = new OperationMetrics(new ObjectName("se.mtm.examples.odata:type=RequestMetrics,client="
+                    + ObjectName.quote(clientName) + ",operation=" + ObjectName.quote(operation)));
+            mBeanServer.registerMBean(metrics, metrics.objectName);
+        } catch (JMException e) {
+            // Still collect the metrics, even if they can't be published
+            out.println("Could not register request metrics of " + operation + " in JMX: " + e.getMessage());
+            return new OperationMetrics(null);
+        }
+        return metrics;
+    }
+
+    private static class OperationMetrics implements OperationMetricsMXBean {
+        private final ObjectName objectName;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+
+        OperationMetrics(ObjectName objectName) {
+            this.objectName = objectName;
+        }
+
+        @Override
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        @Override
+        public double getMeanLatencyMillis() {
+            return latencies.getMean() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLatencyP50Millis() {
+            return latencies.getValueAtPercentile(50) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLatencyP90Millis() {
+            return latencies.getValueAtPercentile(90) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLatencyP99Millis() {
+            return latencies.getValueAtPercentile(99) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getLatencyP999Millis() {
+            return latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMaxLatencyMillis() {
+            return latencies.getMax() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public Map<String, Long> getStatusCounts() {
+            final Map<String, Long> counts = new TreeMap<>();
+            statusCounts.forEach((status, count) -> counts.put(status.toString(), count.sum()));
+            return counts;
+        }
+
+        @Override
+        public void reset() {
+            latencies.reset();
+            requests.reset();
+            failures.reset();
+            retries.reset();
+            bytesSent.reset();
+            bytesReceived.reset();
+            statusCounts.clear();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package se.mtm.examples.odata;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies, in the style of HdrHistogram
+ *
+ * Values are counted in log-linear buckets: every power of two is split into 32 equally wide sub-buckets,
+ * so any recorded value (from a nanosecond up to centuries) is known within about 3% - using a fixed
+ * amount of memory, and without ever allocating while recording.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = Long.SIZE - SUB_BUCKET_BITS + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        final long recorded = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(recorded));
+        count.increment();
+        sum.add(recorded);
+        max.accumulateAndGet(recorded, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Value that the given percentage of recorded values are less than or equal to (within the bucket precision)
+     */
+    long getValueAtPercentile(double percentile) {
+        final long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(index), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    void reset() {
+        for (int index = 0; index < counts.length(); index++) {
+            counts.set(index, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    //// Bucket arithmetic ////
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // The top SUB_BUCKET_BITS + 1 significant bits select the bucket and sub-bucket
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -1,24 +1,34 @@
 package se.mtm.examples.odata;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.http.HttpResponse;
 import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
 import org.apache.olingo.client.api.communication.request.invoke.ODataInvokeRequest;
-import org.apache.olingo.client.api.communication.request.retrieve.ODataEntitySetRequest;
 import org.apache.olingo.client.api.communication.response.ODataInvokeResponse;
 import org.apache.olingo.client.api.communication.response.ODataResponse;
 import org.apache.olingo.client.api.domain.*;
 import org.apache.olingo.client.core.ODataClientFactory;
-import org.apache.olingo.client.core.http.BasicAuthHttpClientFactory;
 import org.apache.olingo.commons.api.edm.Edm;
 import org.apache.olingo.commons.api.format.ContentType;
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+import se.mtm.examples.odata.EntityQuery.Property;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-import static java.lang.System.currentTimeMillis;
 import static java.lang.System.out;
 import static se.mtm.examples.odata.OdataPrintUtils.printEdm;
 import static se.mtm.examples.odata.OdataPrintUtils.printServiceDocument;
@@ -26,11 +36,12 @@ import static se.mtm.examples.odata.OdataPrintUtils.printServiceDocument;
 /**
  * Example application using the Micromarc 3 MMWebApi
  */
-public class MMWebApiApp {
+public class MMWebApiApp implements AutoCloseable {
 
     // Example user details
     private static final String EXAMPLE_EMAIL = "exemplara.exemplesdottir@example.com";
     private static final String EXAMPLE_NAME = "Exemplesdottir, Exemplara";
+    private static final NewBorrower EXAMPLE_BORROWER = new NewBorrower(EXAMPLE_NAME, EXAMPLE_EMAIL, 3, 6473, "swe", "1234");
 
     // Example of an electronic book
     private static final MarcRecordId FLUID_MECHANICS_RECORD_ID = new MarcRecordId(56190);
@@ -38,8 +49,40 @@ public class MMWebApiApp {
     // Example of a book with physical copies
     private static final MarcRecordId AUGUST_AND_ASTA = new MarcRecordId(30755);
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Barcodes of created borrowers, unique within the process (and across processes with distinct node ids)
+    private static final BarcodeGenerator BARCODES = BarcodeGenerator.withDefaultNodeId("snowflake-no-");
+
+    // Borrower properties
+    static final Property<Integer> BORROWER_ID = Property.of("Id", Integer.class);
+    static final Property<String> BORROWER_NAME = Property.of("Name", String.class);
+
+    // Operations, as named in request metrics (actions are named after their URI, see performActionRequest)
+    static final String CREATE_BORROWER = "POST Borrowers/Default.Create";
+    static final String READ_BORROWERS = "GET Borrowers";
+    static final String READ_BORROWER = "GET Borrowers(Id)";
+    static final String READ_METADATA = "GET $metadata";
+    static final String READ_SERVICE_DOCUMENT = "GET ServiceDocument";
+    static final String SEND_BATCH = "POST $batch";
+
+    // Kinds of journaled commands (see CommandJournal), with arguments borrower id and MARC record id
+    static final String LOAN_COMMAND = "loan";
+    static final String RESERVATION_COMMAND = "reservation";
+
     private final ODataClient client;
+    // Factory (and connection pool) created for this facade, closed with it - null if the client is the caller's
+    private final PooledHttpClientFactory ownHttpClientFactory;
     private final String serviceUrl;
+    private final EntityCache entityCache;
+    private final RequestRecorder recorder;
+    private final MMWebApiActions actions;
+
+    // Hot write paths, sending pre-compiled request bodies instead of building and serializing ClientValue trees
+    private final TemplatedAction createBorrowerAction;
+    private final TemplatedAction unidirectionalLoanAction;
+    private final TemplatedAction reservationAction;
+    private final RetryPolicy retryPolicy = RetryPolicy.defaults();
 
 
     public static void main(String[] args) {
@@ -47,7 +90,8 @@ public class MMWebApiApp {
         final String username = args[1];
         final String password = args[2];
 
-        final MMWebApiApp app = new MMWebApiApp(serviceUrl, username, password);
+        final JmxRequestMetrics metrics = new JmxRequestMetrics("MMWebApi");
+        final MMWebApiApp app = new MMWebApiApp(serviceUrl, username, password, metrics);
 
         // Create a new borrower
         // (immediately loaning and registering books)
@@ -55,20 +99,18 @@ public class MMWebApiApp {
         app.registerUnidirectionalLoan(borrower, FLUID_MECHANICS_RECORD_ID);
         app.registerReservation(borrower, AUGUST_AND_ASTA);
 
-        // Fetch, then print, emails of 'Borrowers'
-        final List<ClientEntity> borrowers = app.fetchBorrowers(0, 5);
-        final List<String> borrowerNames =
-                borrowers.stream()
-                        .map(b -> b.getProperty("Name").getValue())
-                        .map(Objects::toString)
-                        .filter(e -> !e.equals(""))
-                        .collect(Collectors.toList());
+        // Fetch, then print, names of 'Borrowers'
+        final List<String> borrowerNames = app.fetchBorrowerNames(0, 5);
         out.println("Borrowers: " + borrowerNames);
 
 
         // Fetch, then print, the service document and Entity Data Model
         printServiceDocument(app.getServiceDocument());
         printEdm(app.getEdm());
+
+        out.println(metrics.summary());
+        metrics.close();
+        app.close();
     }
 
     /**
@@ -77,36 +119,94 @@ public class MMWebApiApp {
      * Encapsulates everything OData-related inside a simpler set of type safe methods.
      *
      */
-    private MMWebApiApp(String serviceUrl, String username, String password) {
+    MMWebApiApp(String serviceUrl, String username, String password) {
+        this(serviceUrl, username, password, RequestMetrics.NONE);
+    }
+
+    /**
+     * Facade reporting latency, status and payload size of every request to the given metrics
+     */
+    MMWebApiApp(String serviceUrl, String username, String password, RequestMetrics metrics) {
+        this(serviceUrl, username, password, metrics, RequestThrottle.defaults());
+    }
+
+    /**
+     * Facade sending requests no faster than the given throttle allows
+     */
+    MMWebApiApp(String serviceUrl, String username, String password, RequestMetrics metrics, RequestThrottle throttle) {
+        this(new PooledHttpClientFactory(username, password, PooledHttpClientFactory.Settings.defaults()), serviceUrl, metrics, throttle);
+    }
+
+    private MMWebApiApp(PooledHttpClientFactory httpClientFactory, String serviceUrl, RequestMetrics metrics, RequestThrottle throttle) {
+        this(initODataClient(httpClientFactory), httpClientFactory, serviceUrl, metrics, throttle);
+    }
+
+    /**
+     * Facade using an OData client configured (and possibly shared) by the caller, see {@link TenantRegistry}
+     *
+     * Closing the facade leaves the client (and its connections) to the caller.
+     */
+    MMWebApiApp(ODataClient client, String serviceUrl, RequestMetrics metrics, RequestThrottle throttle) {
+        this(client, null, serviceUrl, metrics, throttle);
+    }
+
+    private MMWebApiApp(ODataClient client, PooledHttpClientFactory ownHttpClientFactory, String serviceUrl,
+                        RequestMetrics metrics, RequestThrottle throttle) {
         this.serviceUrl = serviceUrl;
-        this.client = initODataClient(username, password);
+        this.client = client;
+        this.ownHttpClientFactory = ownHttpClientFactory;
+        this.entityCache = new EntityCache(client, 10_000, TimeUnit.MINUTES.toMillis(5));
+        this.recorder = new RequestRecorder(metrics, throttle);
+        this.actions = new MMWebApiActions(client, serviceUrl, recorder);
+        this.createBorrowerAction = new TemplatedAction(client, recorder, actions.borrowersCreate,
+                "{\"Pin\":\"${pin}\",\"Borrower\":{\"MainEmail\":\"${email}\",\"BorrowerGroupId\":${borrowerGroupId},"
+                        + "\"HomeUnitId\":${homeUnitId},\"Name\":\"${name}\",\"PreferredLanguage\":\"${preferredLanguage}\","
+                        + "\"Barcodes\":[{\"Barcode\":\"${barcode}\",\"IsCommonBorrowerCard\":false,\"IsSSN\":false}]}}");
+        this.unidirectionalLoanAction = new TemplatedAction(client, recorder, actions.borrowerLoansCreateElectronicLoan,
+                "{\"MarcId\":\"${marcId}\",\"BorrowerId\":\"${borrowerId}\",\"DaysUntilDue\":\"1\",\"ExternalSystemName\":\"Envägslån\"}");
+        this.reservationAction = new TemplatedAction(client, recorder, actions.borrowerReservationsCreate,
+                "{\"MarcId\":\"${marcId}\",\"BorrowerId\":\"${borrowerId}\",\"DeliverAtUnitId\":\"6473\"}");
+    }
+
+    /**
+     * Close the connections of the facade (unless its client was given by the caller), it can't be used after this
+     */
+    @Override
+    public void close() {
+        if (ownHttpClientFactory != null) {
+            ownHttpClientFactory.shutdown();
+        }
     }
 
     /**
      * Create an OData client with the appropriate configuration
      */
-    private static ODataClient initODataClient(String username, String password) {
+    static ODataClient initODataClient(PooledHttpClientFactory httpClientFactory) {
         ODataClient client =
                 ODataClientFactory.getClient();
 
         // Don't chunk - because using chunk causes MM3 to have an Internal Server Error
         client.getConfiguration().setUseChuncked(false);
 
-        // Authenticate
-        client.getConfiguration().setHttpClientFactory(new BasicAuthHttpClientFactory(username, password));
+        // Authenticate, reusing pooled connections between requests
+        client.getConfiguration().setHttpClientFactory(httpClientFactory);
 
         return client;
     }
 
     private ClientServiceDocument getServiceDocument(){
-        return client.getRetrieveRequestFactory().getServiceDocumentRequest(serviceUrl).execute().getBody();
+        return recorder.call(READ_SERVICE_DOCUMENT,
+                () -> client.getRetrieveRequestFactory().getServiceDocumentRequest(serviceUrl).execute().getBody());
     }
 
     /**
      * Get the Entity Data Model - The OData equivalent of a SOAP-schema
+     *
+     * The (large) metadata document is cached locally, and only downloaded again when it has changed. Only
+     * requests actually made are recorded (as {@link #READ_METADATA}), not models served from the cache.
      */
     private Edm getEdm() {
-        return client.getRetrieveRequestFactory().getMetadataRequest(serviceUrl).execute().getBody();
+        return MetadataCache.getDefault().getEdm(client, serviceUrl, metadataRequest -> recorder.call(READ_METADATA, metadataRequest));
     }
 
 
@@ -114,22 +214,7 @@ public class MMWebApiApp {
      * Create an example 'Borrower' named Exemplara Exempelsdottir
      */
     private BorrowerId createBorrower() {
-        final URI createBorrowerUri =
-                client.newURIBuilder(serviceUrl).appendEntitySetSegment("Borrowers").appendOperationCallSegment("Default.Create").build();
-
-        final ClientObjectFactory objectFactory =
-                client.getObjectFactory();
-        Map<String, ClientValue> payload = new HashMap<>();
-
-        // Add borrower pin-code to payload
-        payload.put("Pin", objectFactory.newPrimitiveValueBuilder().buildString("1234"));
-
-        // Add borrower to data payload
-        final ClientComplexValue borrower = createBorrowerPayload();
-        payload.put("Borrower", borrower);
-
-        // Prepare request
-        final ODataInvokeResponse<ClientEntity> response = performActionRequest(createBorrowerUri, payload);
+        final ODataInvokeResponse<ClientEntity> response = invokeCreateBorrower(EXAMPLE_BORROWER, BARCODES.next());
         final ClientEntity responseBody = response.getBody();
 
         // Print result
@@ -137,26 +222,80 @@ public class MMWebApiApp {
         OdataPrintUtils.printClientProperties(responseBody.getProperties());
 
         // Return new Borrower Id
-        return new BorrowerId(Integer.toUnsignedLong((Integer) responseBody.getProperty("Id").getValue().asPrimitive().toValue()));
+        return borrowerIdOf(responseBody);
+    }
+
+    /**
+     * Create a 'Borrower' with the given details, retrying transient failures
+     */
+    BorrowerId createBorrower(NewBorrower newBorrower) {
+        return createBorrower(newBorrower, retryPolicy);
+    }
+
+    /**
+     * Create a 'Borrower' with the given details, retrying transient failures as the given policy says
+     *
+     * The borrower's barcode serves as idempotency key: before each retry the borrower is looked up by it,
+     * in case the failed attempt did create the borrower (e.g. a timeout after the server had committed).
+     */
+    BorrowerId createBorrower(NewBorrower newBorrower, RetryPolicy retryPolicy) {
+        final String barcode = BARCODES.next();
+        return retryPolicy.onRetry((attempt, failure, delayMillis) -> recordRetry(CREATE_BORROWER)).execute(attempt -> {
+            if (attempt > 1) {
+                final BorrowerId created = findBorrowerByBarcode(barcode);
+                if (created != null) {
+                    return created;
+                }
+            }
+            return createBorrowerAction.invoke(MMWebApiApp::createdBorrowerId, newBorrower.getPin(), newBorrower.getEmail(),
+                    Integer.toString(newBorrower.getBorrowerGroupId()), Integer.toString(newBorrower.getHomeUnitId()),
+                    newBorrower.getName(), newBorrower.getPreferredLanguage(), barcode);
+        });
+    }
+
+    /**
+     * Look up a borrower by barcode, null if there is none
+     */
+    BorrowerId findBorrowerByBarcode(String barcode) {
+        final List<ClientEntity> borrowers = recorder.call(READ_BORROWERS, () -> queryBorrowers()
+                .select(BORROWER_ID)
+                .where(() -> "Barcodes/any(b:b/Barcode eq '" + barcode.replace("'", "''") + "')")
+                .top(1)
+                .list());
+        return borrowers.isEmpty() ? null : borrowerIdOf(borrowers.get(0));
+    }
+
+    /**
+     * Invoke the borrower creation action
+     */
+    private ODataInvokeResponse<ClientEntity> invokeCreateBorrower(NewBorrower newBorrower, String barcode) {
+        return actions.borrowersCreate.invoke(newBorrower.getPin(), createBorrowerPayload(newBorrower, barcode));
+    }
+
+    /**
+     * Create borrower part of borrower creation request body, with a new barcode
+     */
+    ClientComplexValue createBorrowerPayload(NewBorrower newBorrower) {
+        return createBorrowerPayload(newBorrower, BARCODES.next());
     }
 
     /**
      * Create borrower part of borrower creation request body
      */
-    private ClientComplexValue createBorrowerPayload() {
+    ClientComplexValue createBorrowerPayload(NewBorrower newBorrower, String barcode) {
         ClientObjectFactory objectFactory = client.getObjectFactory();
 
         // Set only *required* Borrower properties
         final ClientComplexValue borrower = objectFactory.newComplexValue("Mikromarc.Common.Remoting.WebApiDTO.Borrower");
-        borrower.add(objectFactory.newPrimitiveProperty("MainEmail", objectFactory.newPrimitiveValueBuilder().buildString(EXAMPLE_EMAIL)));
-        borrower.add(objectFactory.newPrimitiveProperty("BorrowerGroupId", objectFactory.newPrimitiveValueBuilder().buildInt32(3)));
-        borrower.add(objectFactory.newPrimitiveProperty("HomeUnitId", objectFactory.newPrimitiveValueBuilder().buildInt32(6473)));
-        borrower.add(objectFactory.newPrimitiveProperty("Name", objectFactory.newPrimitiveValueBuilder().buildString(EXAMPLE_NAME)));
-        borrower.add(objectFactory.newPrimitiveProperty("PreferredLanguage", objectFactory.newPrimitiveValueBuilder().buildString("swe")));
+        borrower.add(objectFactory.newPrimitiveProperty("MainEmail", objectFactory.newPrimitiveValueBuilder().buildString(newBorrower.getEmail())));
+        borrower.add(objectFactory.newPrimitiveProperty("BorrowerGroupId", objectFactory.newPrimitiveValueBuilder().buildInt32(newBorrower.getBorrowerGroupId())));
+        borrower.add(objectFactory.newPrimitiveProperty("HomeUnitId", objectFactory.newPrimitiveValueBuilder().buildInt32(newBorrower.getHomeUnitId())));
+        borrower.add(objectFactory.newPrimitiveProperty("Name", objectFactory.newPrimitiveValueBuilder().buildString(newBorrower.getName())));
+        borrower.add(objectFactory.newPrimitiveProperty("PreferredLanguage", objectFactory.newPrimitiveValueBuilder().buildString(newBorrower.getPreferredLanguage())));
 
         // Add barcode
         final ClientCollectionValue<ClientValue> barcodes = objectFactory.newCollectionValue("Collection(Mikromarc.Common.Remoting.WebApiDTO.BorrowerBarcode)");
-        barcodes.add(createBarcodePayload());
+        barcodes.add(createBarcodePayload(barcode));
         borrower.add(objectFactory.newCollectionProperty("Barcodes", barcodes));
 
         return borrower;
@@ -165,26 +304,136 @@ public class MMWebApiApp {
     /**
      * Create barcode part of borrower creation request body
      */
-    private ClientComplexValue createBarcodePayload() {
+    private ClientComplexValue createBarcodePayload(String barcodeValue) {
         ClientObjectFactory objectFactory = client.getObjectFactory();
 
         // Set barcode
         final ClientComplexValue barcode = objectFactory.newComplexValue("Mikromarc.Common.Remoting.WebApiDTO.BorrowerBarcode");
-        barcode.add(objectFactory.newPrimitiveProperty("Barcode", objectFactory.newPrimitiveValueBuilder().buildString(createUniqueBarcode())));
+        barcode.add(objectFactory.newPrimitiveProperty("Barcode", objectFactory.newPrimitiveValueBuilder().buildString(barcodeValue)));
         barcode.add(objectFactory.newPrimitiveProperty("IsCommonBorrowerCard", objectFactory.newPrimitiveValueBuilder().buildBoolean(false)));
         barcode.add(objectFactory.newPrimitiveProperty("IsSSN", objectFactory.newPrimitiveValueBuilder().buildBoolean(false)));
         return barcode;
     }
 
+    /**
+     * Query the 'Borrowers' entity set
+     */
+    EntityQuery queryBorrowers() {
+        return new EntityQuery(client, serviceUrl, "Borrowers");
+    }
+
     /**
      * Fetch a segment of borrowers in given range
      */
-    private List<ClientEntity> fetchBorrowers(int offset, int limit) {
+    List<ClientEntity> fetchBorrowers(int offset, int limit) {
+        return recorder.call(READ_BORROWERS, () -> queryBorrowers().orderBy(BORROWER_ID).skip(offset).top(limit).list());
+    }
+
+    /**
+     * Fetch only the (non-empty) names of a segment of borrowers in given range
+     *
+     * The response is read straight from the wire, without building a ClientEntity per borrower.
+     */
+    List<String> fetchBorrowerNames(int offset, int limit) {
+        final StreamingEntitySetReader<BorrowerSummary> reader =
+                new StreamingEntitySetReader<BorrowerSummary>("Id").bindString("Name", BorrowerSummary::setName);
         final URI borrowersUri =
-                client.newURIBuilder(serviceUrl).appendEntitySetSegment("Borrowers").skip(offset).top(limit).build();
-        final ODataEntitySetRequest<ClientEntitySet> borrowersRequest =
-                client.getRetrieveRequestFactory().getEntitySetRequest(borrowersUri);
-        return borrowersRequest.execute().getBody().getEntities();
+                queryBorrowers().select(BORROWER_ID, BORROWER_NAME).whereNe(BORROWER_NAME, "")
+                        .orderBy(BORROWER_ID).skip(offset).top(limit).toUri();
+
+        final List<String> names = new ArrayList<>(limit);
+        return recorder.call(READ_BORROWERS, () -> {
+            reader.read(client, borrowersUri, new BorrowerSummary(), borrower -> {
+                if (borrower.getName() != null) {
+                    names.add(borrower.getName());
+                }
+            });
+            return names;
+        });
+    }
+
+    /**
+     * Read all borrowers into a reused summary record, passed to the handler once per borrower
+     *
+     * Each page is a request of its own (recorded as {@link #READ_BORROWERS}), and the handler is called while
+     * its page is read.
+     */
+    long readBorrowerSummaries(int pageSize, Consumer<BorrowerSummary> handler) {
+        return borrowerSummaryReader().readAll(client, serviceUrl, "Borrowers", pageSize, new BorrowerSummary(), handler,
+                page -> recorder.call(READ_BORROWERS, page));
+    }
+
+    /**
+     * Lazily stream summaries of all borrowers, reading partitions of the set over up to parallelism connections
+     * at a time (see {@link ParallelEntitySetScan})
+     *
+     * Close the stream (e.g. using try-with-resources) if it isn't consumed to the end.
+     *
+     * @param ordered whether to return the borrowers in Id order, rather than as soon as they are read
+     */
+    Stream<BorrowerSummary> scanBorrowerSummaries(int parallelism, int pageSize, boolean ordered) {
+        return new ParallelEntitySetScan<>(client, recorder, serviceUrl, "Borrowers", borrowerSummaryReader())
+                .stream(parallelism, pageSize, ordered, BorrowerSummary::new, BorrowerSummary::copy);
+    }
+
+    private static StreamingEntitySetReader<BorrowerSummary> borrowerSummaryReader() {
+        return new StreamingEntitySetReader<BorrowerSummary>("Id")
+                .bindLong("Id", BorrowerSummary::setId)
+                .bindString("Name", BorrowerSummary::setName);
+    }
+
+    /**
+     * Fetch a single borrower (served from the entity cache if looked up recently)
+     */
+    ClientEntity fetchBorrower(BorrowerId borrowerId) {
+        final URI borrowerUri = borrowerUri(borrowerId);
+        return recorder.call(READ_BORROWER, () -> entityCache.get(borrowerUri));
+    }
+
+    /**
+     * Fetch a single borrower from the service, even if it's cached (updating the entity cache)
+     */
+    ClientEntity refreshBorrower(BorrowerId borrowerId) {
+        final URI borrowerUri = borrowerUri(borrowerId);
+        return recorder.call(READ_BORROWER, () -> entityCache.refresh(borrowerUri));
+    }
+
+    private URI borrowerUri(BorrowerId borrowerId) {
+        return client.newURIBuilder(serviceUrl).appendEntitySetSegment("Borrowers").appendKeySegment(borrowerId.getDbId()).build();
+    }
+
+    /**
+     * Lazily stream all borrowers, fetching them page by page as the stream is consumed
+     *
+     * Close the stream (e.g. using try-with-resources) if it isn't consumed to the end.
+     */
+    Stream<ClientEntity> streamBorrowers(int pageSize) {
+        return new EntitySetPager(client, recorder, serviceUrl, "Borrowers", "Id", pageSize).stream();
+    }
+
+    /**
+     * Export all members of an entity set (e.g. "Borrowers") to a gzip-compressed CSV file, returning the number of rows
+     */
+    long exportEntitySet(String entitySetName, Path file, int pageSize) {
+        return new EntitySetExporter(client, recorder, serviceUrl, getEdm(), entitySetName).export(file, pageSize);
+    }
+
+    /**
+     * Apply the borrowers changed (or deleted) since the last sync to the given local store
+     */
+    EntitySetSync.Result syncBorrowers(SyncStore store) {
+        return borrowersSync().sync(store);
+    }
+
+    /**
+     * Remove locally stored borrowers that have been deleted (needed if the service doesn't track changes)
+     */
+    EntitySetSync.Result reconcileDeletedBorrowers(SyncStore store) {
+        return borrowersSync().reconcileDeletes(store);
+    }
+
+    private EntitySetSync borrowersSync() {
+        return new EntitySetSync(client, recorder, serviceUrl, "Borrowers", BORROWER_ID.getName(), "ModifiedDate", 1000);
     }
 
     /**
@@ -193,26 +442,28 @@ public class MMWebApiApp {
     private void registerUnidirectionalLoan(BorrowerId borrowerId, MarcRecordId marcRecordId) {
         out.println("Register a unidirectional loan of " + marcRecordId + " for " + borrowerId );
 
-        final URI actionUri =
-                client.newURIBuilder(serviceUrl)
-                        .appendEntitySetSegment("BorrowerLoans")
-                        .appendOperationCallSegment("Default.CreateElectronicLoan")
-                        .build();
+        // Prepare (action invocation) request without OData-metadata
+        final ODataInvokeResponse<ClientEntity> response =
+                actions.borrowerLoansCreateElectronicLoan.invoke(
+                        Long.toString(marcRecordId.getDbId()), Long.toString(borrowerId.getDbId()), "1", "Envägslån");
 
-        final ClientObjectFactory objectFactory =
-                client.getObjectFactory();
+        printResponseStatus("Registered a unidirectional loan", response);
+    }
 
-        // Assemble reservation information
-        Map<String, ClientValue> payload = new HashMap<>();
-        payload.put("MarcId", objectFactory.newPrimitiveValueBuilder().buildString(marcRecordId.getDbId()+""));
-        payload.put("BorrowerId", objectFactory.newPrimitiveValueBuilder().buildString(borrowerId.getDbId()+""));
-        payload.put("DaysUntilDue", objectFactory.newPrimitiveValueBuilder().buildString("1"));
-        payload.put("ExternalSystemName", objectFactory.newPrimitiveValueBuilder().buildString("Envägslån"));
+    /**
+     * Queue a unidirectional loan in the given batch, completing once the batch has been sent
+     */
+    CompletableFuture<ActionOutcome> registerUnidirectionalLoan(ActionBatcher batcher, BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return batcher.submit(unidirectionalLoanUri(), unidirectionalLoanPayload(borrowerId, marcRecordId));
+    }
 
-        // Prepare (action invocation) request without OData-metadata
-        final ODataInvokeResponse<ClientEntity> response = performActionRequest(actionUri, payload);
+    URI unidirectionalLoanUri() {
+        return actions.borrowerLoansCreateElectronicLoan.getUri();
+    }
 
-        printResponseStatus("Registered a unidirectional loan", response);
+    Map<String, ClientValue> unidirectionalLoanPayload(BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return actions.borrowerLoansCreateElectronicLoan.payload(
+                Long.toString(marcRecordId.getDbId()), Long.toString(borrowerId.getDbId()), "1", "Envägslån");
     }
 
     /**
@@ -221,47 +472,176 @@ public class MMWebApiApp {
     private void registerReservation(BorrowerId borrowerId, MarcRecordId marcRecordId) {
         out.println("Register a reservation of " + marcRecordId + " for " + borrowerId );
 
-        // Create method call URI for registering a reservation
-        // URI: /odata/BorrowerReservations/Default.Create
-        final URI actionUri =
-                client.newURIBuilder(serviceUrl)
-                        .appendEntitySetSegment("BorrowerReservations")
-                        .appendOperationCallSegment("Default.Create")
-                        .build();
+        // Invoke reservation action request
+        final ODataInvokeResponse<ClientEntity> response =
+                actions.borrowerReservationsCreate.invoke(
+                        Long.toString(marcRecordId.getDbId()), Long.toString(borrowerId.getDbId()), "6473");
 
-        final ClientObjectFactory objectFactory =
-                client.getObjectFactory();
+        printResponseStatus("Registered reservation", response);
+    }
 
-        // Assemble reservation information
-        Map<String, ClientValue> payload = new HashMap<>();
-        payload.put("MarcId", objectFactory.newPrimitiveValueBuilder().buildString(marcRecordId.getDbId()+""));
-        payload.put("BorrowerId", objectFactory.newPrimitiveValueBuilder().buildString(borrowerId.getDbId()+""));
-        payload.put("DeliverAtUnitId", objectFactory.newPrimitiveValueBuilder().buildString("6473"));
+    /**
+     * Queue a reservation in the given batch, completing once the batch has been sent
+     */
+    CompletableFuture<ActionOutcome> registerReservation(ActionBatcher batcher, BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return batcher.submit(reservationUri(), reservationPayload(borrowerId, marcRecordId));
+    }
 
-        // Invoke reservation action request
-        final ODataInvokeResponse<ClientEntity> response = performActionRequest(actionUri, payload);
+    /**
+     * Method call URI for registering a reservation
+     * URI: /odata/BorrowerReservations/Default.Create
+     */
+    URI reservationUri() {
+        return actions.borrowerReservationsCreate.getUri();
+    }
 
-        printResponseStatus("Registered reservation", response);
+    Map<String, ClientValue> reservationPayload(BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return actions.borrowerReservationsCreate.payload(
+                Long.toString(marcRecordId.getDbId()), Long.toString(borrowerId.getDbId()), "6473");
+    }
+
+    /**
+     * Register a unidirectional loan, journaled: durable in the journal before it's sent, acknowledged once answered
+     */
+    ActionOutcome registerUnidirectionalLoan(CommandJournal journal, BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return dispatch(journal, journal.record(LOAN_COMMAND, borrowerId.getDbId(), marcRecordId.getDbId()));
+    }
+
+    /**
+     * Register a reservation, journaled (see registerUnidirectionalLoan)
+     */
+    ActionOutcome registerReservation(CommandJournal journal, BorrowerId borrowerId, MarcRecordId marcRecordId) {
+        return dispatch(journal, journal.record(RESERVATION_COMMAND, borrowerId.getDbId(), marcRecordId.getDbId()));
+    }
+
+    /**
+     * Send the commands of a journal that were never answered, e.g. because the process died while sending them
+     *
+     * A command may have reached the service before the process died, so replaying gives at-least-once delivery:
+     * check the borrowers' loans and reservations first if a duplicate matters.
+     *
+     * A command that fails doesn't stop the others. Those rejected by the service (4xx) are acknowledged, the
+     * others (server errors, timeouts, open circuits) stay in the journal for the next replay.
+     */
+    JournalReplay replayJournal(CommandJournal journal) {
+        final JournalReplay replay = new JournalReplay();
+        for (CommandJournal.Command command : journal.unacknowledged()) {
+            out.println("Replaying " + command);
+            try {
+                dispatch(journal, command);
+            } catch (RuntimeException e) {
+                out.println("Failed to replay " + command + ": " + e.getMessage());
+                replay.failures.put(command, e);
+            }
+            replay.replayed++;
+        }
+        journal.compact();
+        return replay;
+    }
+
+    private ActionOutcome dispatch(CommandJournal journal, CommandJournal.Command command) {
+        final String borrowerId = Long.toString(command.getArgument(0));
+        final String marcRecordId = Long.toString(command.getArgument(1));
+        final TemplatedAction action;
+        if (LOAN_COMMAND.equals(command.getKind())) {
+            action = unidirectionalLoanAction;
+        } else if (RESERVATION_COMMAND.equals(command.getKind())) {
+            action = reservationAction;
+        } else {
+            throw new IllegalArgumentException("Unknown journaled command " + command);
+        }
+
+        final ActionOutcome outcome;
+        try {
+            outcome = action.invoke(marcRecordId, borrowerId);
+        } catch (ODataClientErrorException e) {
+            // Answered, but rejected (4xx) - sending it again won't help. Server errors and timeouts stay unacknowledged.
+            if (e.getStatusLine().getStatusCode() < 500) {
+                journal.acknowledge(command, e.getStatusLine().getStatusCode());
+            }
+            throw e;
+        }
+        journal.acknowledge(command, outcome.getStatusCode());
+        return outcome;
+    }
+
+    /**
+     * Create a batcher collecting action invocations (loans, reservations) into OData $batch requests
+     *
+     * Falls back to one request per action if the service rejects batch requests.
+     */
+    ActionBatcher newActionBatcher(int maxBatchSize, long flushIntervalMillis) {
+        return new ActionBatcher(client, serviceUrl, maxBatchSize, flushIntervalMillis, this::performActionRequest, recorder);
     }
 
 
     /**
      * Make an OData request that invokes some action at the given URI with the provided request body payload
      */
-    private ODataInvokeResponse<ClientEntity> performActionRequest(URI actionUri, Map<String, ClientValue> payload) {
+    ODataInvokeResponse<ClientEntity> performActionRequest(URI actionUri, Map<String, ClientValue> payload) {
+        return recorder.call(actionOperation(actionUri), () -> newActionRequest(client, actionUri, payload).execute());
+    }
+
+    /**
+     * Record that a failed request of the given operation is retried
+     */
+    void recordRetry(String operation) {
+        recorder.retried(operation);
+    }
+
+    /**
+     * Prepare an action invocation request, sending and receiving JSON without OData-metadata
+     */
+    static ODataInvokeRequest<ClientEntity> newActionRequest(ODataClient client, URI actionUri, Map<String, ClientValue> payload) {
         final ODataInvokeRequest<ClientEntity> actionInvokeRequest =
                 client.getInvokeRequestFactory().getActionInvokeRequest(actionUri, ClientEntity.class, payload);
         actionInvokeRequest.setFormat(ContentType.JSON_NO_METADATA);
         actionInvokeRequest.setContentType(ContentType.APPLICATION_JSON.toContentTypeString());
-        
-        return actionInvokeRequest.execute();
+
+        return actionInvokeRequest;
     }
 
     //// Helpers ////
 
 
-    private static String createUniqueBarcode() {
-        return "snowflake-no-" + (currentTimeMillis() / 1000 % 1000);
+    /**
+     * Name of an action in request metrics, e.g. "POST BorrowerLoans/Default.CreateElectronicLoan"
+     */
+    private String actionOperation(URI actionUri) {
+        String path = actionUri.toString();
+        if (path.startsWith(serviceUrl)) {
+            path = path.substring(serviceUrl.length());
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.endsWith("()")) {
+            path = path.substring(0, path.length() - 2);
+        }
+        return "POST " + path;
+    }
+
+    private static BorrowerId borrowerIdOf(ClientEntity borrower) {
+        return new BorrowerId(Integer.toUnsignedLong((Integer) borrower.getProperty("Id").getValue().asPrimitive().toValue()));
+    }
+
+    /**
+     * Id of the borrower in a borrower creation response, read without deserializing the whole entity
+     */
+    private static BorrowerId createdBorrowerId(HttpResponse response) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response.getEntity().getContent())) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("Id".equals(field)) {
+                        return new BorrowerId(parser.getLongValue());
+                    }
+                    parser.skipChildren();
+                }
+            }
+        }
+        throw new IOException("No Id in borrower creation response");
     }
 
     private static void printResponseStatus(String requestDescription, ODataResponse response) {
@@ -273,7 +653,7 @@ public class MMWebApiApp {
     /**
      * Encapsulates Database ID of a borrower (improving type safety compared to passing an int)
      */
-    private static class BorrowerId extends  AbstractDatabaseIdValueType{
+    static class BorrowerId extends  AbstractDatabaseIdValueType{
         BorrowerId(long id) {
             super(id);
         }
@@ -282,16 +662,124 @@ public class MMWebApiApp {
     /**
      * Encapsulates Database ID of an a MARC record(improving type safety compared to passing an int)
      */
-    private static class MarcRecordId extends  AbstractDatabaseIdValueType {
+    static class MarcRecordId extends  AbstractDatabaseIdValueType {
         MarcRecordId(long id) {super(id);}
     }
 
+    /**
+     * Summary of a journal replay
+     */
+    static class JournalReplay {
+        private int replayed;
+        private final Map<CommandJournal.Command, RuntimeException> failures = new LinkedHashMap<>();
+
+        /**
+         * Number of commands sent (or attempted)
+         */
+        int getReplayed() {
+            return replayed;
+        }
+
+        /**
+         * Commands that failed, with why, in journal order
+         */
+        Map<CommandJournal.Command, RuntimeException> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d commands replayed, %d failed", replayed, failures.size());
+        }
+    }
+
+    /**
+     * Mutable summary of a borrower, filled in by streaming reads (see {@link StreamingEntitySetReader})
+     */
+    static class BorrowerSummary {
+        private long id;
+        private String name;
+
+        long getId() {
+            return id;
+        }
+
+        void setId(long id) {
+            this.id = id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        void setName(String name) {
+            this.name = name;
+        }
+
+        BorrowerSummary copy() {
+            final BorrowerSummary copy = new BorrowerSummary();
+            copy.id = id;
+            copy.name = name;
+            return copy;
+        }
+    }
+
+    /**
+     * Details of a borrower to create (the required subset of Mikromarc.Common.Remoting.WebApiDTO.Borrower)
+     */
+    static class NewBorrower {
+        private final String name;
+        private final String email;
+        private final int borrowerGroupId;
+        private final int homeUnitId;
+        private final String preferredLanguage;
+        private final String pin;
+
+        NewBorrower(String name, String email, int borrowerGroupId, int homeUnitId, String preferredLanguage, String pin) {
+            this.name = name;
+            this.email = email;
+            this.borrowerGroupId = borrowerGroupId;
+            this.homeUnitId = homeUnitId;
+            this.preferredLanguage = preferredLanguage;
+            this.pin = pin;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getEmail() {
+            return email;
+        }
+
+        int getBorrowerGroupId() {
+            return borrowerGroupId;
+        }
+
+        int getHomeUnitId() {
+            return homeUnitId;
+        }
+
+        String getPreferredLanguage() {
+            return preferredLanguage;
+        }
+
+        String getPin() {
+            return pin;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s name:%s email:%s]", getClass().getSimpleName(), name, email);
+        }
+    }
+
     /**
      * Abstract value type implementation
      *
      * Use as base class for all types of database IDs.
      */
-    private abstract static class AbstractDatabaseIdValueType {
+    abstract static class AbstractDatabaseIdValueType {
         private final long id;
 
         AbstractDatabaseIdValueType(long id) {
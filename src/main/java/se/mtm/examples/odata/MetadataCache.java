@@ -0,0 +1,272 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.request.retrieve.ODataRawRequest;
+import org.apache.olingo.client.api.communication.response.ODataRawResponse;
+import org.apache.olingo.commons.api.edm.Edm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.out;
+
+/**
+ * Cache of Entity Data Models, on disk as well as in memory
+ *
+ * The raw metadata document (CSDL) of each service is stored on disk together with its ETag/Last-Modified
+ * validators. Within the time to live the local copy is used as is, after that it's revalidated with a
+ * conditional request - so an unchanged schema is never downloaded again.
+ *
+ * Parsed models are shared by all clients in the JVM, so each service's schema is parsed at most once - and
+ * services with identical metadata documents (e.g. several libraries running the same version) share one model.
+ * A model is kept in memory for the time to live too, then the document is revalidated (and parsed again only
+ * if it has changed).
+ */
+class MetadataCache {
+
+    // Bump when the on-disk layout changes, entries of other versions are ignored
+    private static final String FORMAT_VERSION = "1";
+
+    private static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final MetadataCache DEFAULT = new MetadataCache(
+            Paths.get(System.getProperty("odata.metadata.cache.dir", System.getProperty("user.home") + "/.cache/odata-example/metadata")),
+            DEFAULT_TIME_TO_LIVE_MILLIS);
+
+    // Parsed models, keyed by service URL and by digest of the metadata document (shared by all cache instances)
+    private static final ConcurrentMap<String, ParsedModel> PARSED = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Edm> PARSED_BY_DOCUMENT = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long timeToLiveMillis;
+
+    MetadataCache(Path directory, long timeToLiveMillis) {
+        this.directory = directory;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Cache in the user's home directory (override with the system property 'odata.metadata.cache.dir')
+     */
+    static MetadataCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the Entity Data Model of the given service, downloading the metadata document only if needed
+     */
+    Edm getEdm(ODataClient client, String serviceUrl) {
+        return getEdm(client, serviceUrl, Supplier::get);
+    }
+
+    /**
+     * Like {@link #getEdm(ODataClient, String)}, making the request for the metadata document (if one is needed)
+     * through metadataRequest (e.g. to record it), which makes it by calling the supplier it's given
+     */
+    Edm getEdm(ODataClient client, String serviceUrl, Function<Supplier<Path>, Path> metadataRequest) {
+        final ParsedModel parsed = PARSED.get(serviceUrl);
+        if (parsed != null && currentTimeMillis() - parsed.loaded < timeToLiveMillis) {
+            return parsed.edm;
+        }
+
+        // Revalidated outside of the map, so a slow (or failing) request doesn't hold up other services' lookups
+        final Path metadataFile = refresh(client, serviceUrl, metadataRequest);
+        final byte[] metadata;
+        try {
+            metadata = Files.readAllBytes(metadataFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read cached metadata " + metadataFile, e);
+        }
+        final String documentDigest = digest(metadata);
+        final Edm edm = PARSED_BY_DOCUMENT.computeIfAbsent(documentDigest,
+                digest -> client.getReader().readMetadata(new ByteArrayInputStream(metadata)));
+        final ParsedModel replaced = PARSED.put(serviceUrl, new ParsedModel(edm, documentDigest, currentTimeMillis()));
+        if (replaced != null && !replaced.documentDigest.equals(documentDigest)) {
+            forgetUnused(replaced.documentDigest);
+        }
+        return edm;
+    }
+
+    /**
+     * Path to the raw metadata document of the given service, downloading (or revalidating) it if needed
+     */
+    Path getMetadataFile(ODataClient client, String serviceUrl) {
+        return refresh(client, serviceUrl, Supplier::get);
+    }
+
+    /**
+     * Drop the model of a replaced metadata document, unless another service still uses it
+     */
+    private static void forgetUnused(String documentDigest) {
+        for (ParsedModel model : PARSED.values()) {
+            if (model.documentDigest.equals(documentDigest)) {
+                return;
+            }
+        }
+        PARSED_BY_DOCUMENT.remove(documentDigest);
+    }
+
+    private static class ParsedModel {
+        private final Edm edm;
+        private final String documentDigest;
+        private final long loaded;
+
+        ParsedModel(Edm edm, String documentDigest, long loaded) {
+            this.edm = edm;
+            this.documentDigest = documentDigest;
+            this.loaded = loaded;
+        }
+    }
+
+    //// Disk cache ////
+
+    /**
+     * Make sure the local copy of the metadata document is fresh, returning its path
+     */
+    private synchronized Path refresh(ODataClient client, String serviceUrl, Function<Supplier<Path>, Path> metadataRequest) {
+        final String key = cacheKey(serviceUrl);
+        final Path metadataFile = directory.resolve(key + ".xml");
+        final Path validatorsFile = directory.resolve(key + ".properties");
+
+        final Properties validators = readValidators(validatorsFile);
+        final boolean haveLocalCopy = validators != null && Files.isRegularFile(metadataFile);
+        if (haveLocalCopy && currentTimeMillis() - Long.parseLong(validators.getProperty("fetched")) < timeToLiveMillis) {
+            return metadataFile;
+        }
+
+        final URI metadataUri = client.newURIBuilder(serviceUrl).appendMetadataSegment().build();
+        final ODataRawRequest request = client.getRetrieveRequestFactory().getRawRequest(metadataUri);
+        request.setFormat("application/xml");
+        if (haveLocalCopy) {
+            if (validators.getProperty("etag") != null) {
+                request.setIfNoneMatch(validators.getProperty("etag"));
+            }
+            if (validators.getProperty("lastModified") != null) {
+                request.addCustomHeader("If-Modified-Since", validators.getProperty("lastModified"));
+            }
+        }
+
+        try {
+            return metadataRequest.apply(() -> download(request, serviceUrl, haveLocalCopy ? validators : null, metadataFile, validatorsFile));
+        } catch (RuntimeException e) {
+            if (!haveLocalCopy) {
+                throw e;
+            }
+            out.println("Could not revalidate metadata of " + serviceUrl + ", using cached copy: " + e.getMessage());
+            return metadataFile;
+        }
+    }
+
+    /**
+     * Request the metadata document, storing it (unless unchanged) and its validators
+     *
+     * @param validators validators of the local copy, null if there is none
+     */
+    private Path download(ODataRawRequest request, String serviceUrl, Properties validators, Path metadataFile, Path validatorsFile) {
+        final ODataRawResponse response = request.execute();
+        try {
+            final Properties updated = new Properties();
+            updated.setProperty("version", FORMAT_VERSION);
+            updated.setProperty("serviceUrl", serviceUrl);
+            updated.setProperty("fetched", Long.toString(currentTimeMillis()));
+
+            if (validators != null && response.getStatusCode() == 304) {
+                // Unchanged, keep the document and its validators
+                copyValidator(validators, updated, "etag");
+                copyValidator(validators, updated, "lastModified");
+            } else {
+                Files.createDirectories(directory);
+                final Path downloaded = Files.createTempFile(directory, cacheKey(serviceUrl), ".tmp");
+                try (InputStream metadata = response.getRawResponse()) {
+                    Files.copy(metadata, downloaded, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(downloaded, metadataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                if (response.getETag() != null) {
+                    updated.setProperty("etag", response.getETag());
+                }
+                final Collection<String> lastModified = response.getHeader("Last-Modified");
+                if (lastModified != null && !lastModified.isEmpty()) {
+                    updated.setProperty("lastModified", lastModified.iterator().next());
+                }
+            }
+            writeValidators(validatorsFile, updated);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to cache metadata of " + serviceUrl, e);
+        } finally {
+            response.close();
+        }
+        return metadataFile;
+    }
+
+    private static Properties readValidators(Path validatorsFile) {
+        if (!Files.isRegularFile(validatorsFile)) {
+            return null;
+        }
+        final Properties validators = new Properties();
+        try (InputStream in = Files.newInputStream(validatorsFile)) {
+            validators.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return FORMAT_VERSION.equals(validators.getProperty("version")) && validators.getProperty("fetched") != null
+                ? validators
+                : null;
+    }
+
+    private void writeValidators(Path validatorsFile, Properties validators) throws IOException {
+        final Path written = Files.createTempFile(directory, validatorsFile.getFileName().toString(), ".tmp");
+        try (OutputStream propertiesOut = Files.newOutputStream(written)) {
+            validators.store(propertiesOut, "Validators of cached metadata document");
+        }
+        Files.move(written, validatorsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void copyValidator(Properties from, Properties to, String name) {
+        if (from.getProperty(name) != null) {
+            to.setProperty(name, from.getProperty(name));
+        }
+    }
+
+    /**
+     * File name safe key of a service URL
+     */
+    private static String cacheKey(String serviceUrl) {
+        return digest(serviceUrl.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hex of the first 128 bits of the SHA-256 digest of the given bytes
+     */
+    private static String digest(byte[] bytes) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            final StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                key.append(String.format("%02x", digest[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+}
@@ -1,20 +1,22 @@
 package se.mtm.examples.odata;
 
 import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
 import org.apache.olingo.client.api.communication.request.cud.ODataEntityUpdateRequest;
 import org.apache.olingo.client.api.communication.request.cud.UpdateType;
 import org.apache.olingo.client.api.communication.response.ODataEntityCreateResponse;
+import org.apache.olingo.client.api.communication.response.ODataEntityUpdateResponse;
 import org.apache.olingo.client.api.domain.ClientEntity;
-import org.apache.olingo.client.api.domain.ClientEntitySet;
 import org.apache.olingo.client.api.domain.ClientServiceDocument;
-import org.apache.olingo.client.api.uri.FilterFactory;
-import org.apache.olingo.client.api.uri.URIFilter;
 import org.apache.olingo.client.core.ODataClientFactory;
 import org.apache.olingo.commons.api.edm.Edm;
 import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import se.mtm.examples.odata.EntityQuery.Property;
 
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -25,8 +27,13 @@ import java.util.stream.Collectors;
 public class ODataExampleApp {
     private static final String REFERENCE_SERVICE_BASE_URL = "https://services.odata.org/V4/TripPinServiceRW/";
 
+    // Person properties
+    private static final Property<String> FIRST_NAME = Property.of("FirstName", String.class);
+    private static final Property<String> LAST_NAME = Property.of("LastName", String.class);
+
     private final String serviceUrl;
     private final ODataClient client;
+    private final EntityCache entityCache;
 
     public static void main(String[] args){
         final String serviceKey = args[0];
@@ -37,16 +44,18 @@ public class ODataExampleApp {
         app.displayEdm();
 
         // Manipulate people
-        app.listPeople();
+        app.listPeople(app.queryPeople());
         final URI personEditLink = app.addSomePerson();
         app.changeFirstName(personEditLink, "Anja");
-        app.listPeople(app.getFilterFactory().eq("LastName", "Person"));
+        app.listPeople(app.queryPeople().whereEq(LAST_NAME, "Person"));
     }
 
 
     private ODataExampleApp(final String serviceKey) {
         this.serviceUrl = REFERENCE_SERVICE_BASE_URL + serviceKey + "/";
         this.client = ODataClientFactory.getClient();
+        this.client.getConfiguration().setHttpClientFactory(new PooledHttpClientFactory(PooledHttpClientFactory.Settings.defaults()));
+        this.entityCache = new EntityCache(client, 1000, TimeUnit.MINUTES.toMillis(5));
     }
 
     //// Schema ////
@@ -65,7 +74,7 @@ public class ODataExampleApp {
      */
     private void displayEdm() {
         final Edm edm =
-                client.getRetrieveRequestFactory().getMetadataRequest(serviceUrl).execute().getBody();
+                MetadataCache.getDefault().getEdm(client, serviceUrl);
         OdataPrintUtils.printEdm(edm);
     }
 
@@ -91,7 +100,11 @@ public class ODataExampleApp {
 
         final ODataEntityCreateResponse<ClientEntity> createPersonResponse =
                 client.getCUDRequestFactory().getEntityCreateRequest(peopleUri, newPerson).execute();
-        return createPersonResponse.getBody().getEditLink();
+        final ClientEntity createdPerson = createPersonResponse.getBody();
+
+        // Remember the created person (and its ETag) so that it needn't be fetched again before updating it
+        entityCache.put(createdPerson.getEditLink(), createdPerson, createdPerson.getETag());
+        return createdPerson.getEditLink();
     }
 
     /**
@@ -100,9 +113,20 @@ public class ODataExampleApp {
     private void changeFirstName(URI editLink, String newName) {
         // OData uses the ETag to determine if the entity has been manipulate since retrieved
         // Thus we must include it in the update request, or OData will refuce to process the new request
-        final String eTag =
-                client.getRetrieveRequestFactory().getEntityRequest(editLink).execute().getETag();
+        // (the ETag is cached, so the entity is only fetched if we haven't seen it lately)
+        try {
+            updateFirstName(editLink, newName, entityCache.getETag(editLink));
+        } catch (ODataClientErrorException e) {
+            if (e.getStatusLine().getStatusCode() != HttpStatusCode.PRECONDITION_FAILED.getStatusCode()) {
+                throw e;
+            }
+            // Someone else changed the person since we cached it, try again with a fresh ETag
+            entityCache.invalidate(editLink);
+            updateFirstName(editLink, newName, entityCache.getETag(editLink));
+        }
+    }
 
+    private void updateFirstName(URI editLink, String newName, String eTag) {
         final ClientEntity update =
                 client.getObjectFactory().newEntity(new FullQualifiedName("Microsoft.OData.SampleService.Models.TripPin.Person"));
         update.getProperties().add(
@@ -110,40 +134,25 @@ public class ODataExampleApp {
         );
         final ODataEntityUpdateRequest<ClientEntity> entityUpdateRequest = client.getCUDRequestFactory().getEntityUpdateRequest(editLink, UpdateType.PATCH, update);
         entityUpdateRequest.setIfMatch(eTag);
-        entityUpdateRequest.execute();
+        final ODataEntityUpdateResponse<ClientEntity> updateResponse = entityUpdateRequest.execute();
+        entityCache.updated(editLink, updateResponse.getETag());
     }
 
     /**
-     * List members of the entity set 'People'
+     * Query the entity set 'People'
      */
-    private void listPeople() {
-        final URI peopleUri =
-                client.newURIBuilder(serviceUrl).appendEntitySetSegment("People").build();
-        final ClientEntitySet people =
-                client.getRetrieveRequestFactory().getEntitySetRequest(peopleUri).execute().getBody();
-        final List<String> peoplesNames = people.getEntities().stream()
-                .map((person) -> person.getProperty("FirstName").getValue() + " " + person.getProperty("LastName").getValue())
-                .collect(Collectors.toList());
-        System.out.println("Peoples names: " + peoplesNames );
+    private EntityQuery queryPeople() {
+        return new EntityQuery(client, serviceUrl, "People");
     }
 
     /**
-     * List members of 'People' matching the given filter
+     * List the names of members of 'People' matching the given query
      */
-    private void listPeople(URIFilter filter) {
-        final URI peopleUri =
-                client.newURIBuilder(serviceUrl).appendEntitySetSegment("People").filter(filter).build();
-        final ClientEntitySet people =
-                client.getRetrieveRequestFactory().getEntitySetRequest(peopleUri).execute().getBody();
-        final List<String> peoplesNames = people.getEntities().stream()
-                .map((person) -> person.getProperty("FirstName").getValue() + " " + person.getProperty("LastName").getValue())
+    private void listPeople(EntityQuery query) {
+        // Only fetch the names, not the whole person
+        final List<String> peoplesNames = query.select(FIRST_NAME, LAST_NAME).list().stream()
+                .map((person) -> FIRST_NAME.valueOf(person) + " " + LAST_NAME.valueOf(person))
                 .collect(Collectors.toList());
         System.out.println("Peoples names: " + peoplesNames );
     }
-
-    //// Helpers/Wrappers ////
-
-    private FilterFactory getFilterFactory() {
-        return client.getFilterFactory();
-    }
 }
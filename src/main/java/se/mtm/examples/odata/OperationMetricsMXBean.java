@@ -0,0 +1,38 @@
+package se.mtm.examples.odata;
+
+import java.util.Map;
+
+/**
+ * Request metrics of one operation, as exposed through JMX (public, as required of MXBean interfaces)
+ */
+public interface OperationMetricsMXBean {
+
+    long getRequests();
+
+    long getFailures();
+
+    long getRetries();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    double getMeanLatencyMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyP999Millis();
+
+    double getMaxLatencyMillis();
+
+    /**
+     * Number of responses per HTTP status code
+     */
+    Map<String, Long> getStatusCounts();
+
+    void reset();
+}
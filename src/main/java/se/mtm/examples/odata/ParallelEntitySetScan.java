@@ -0,0 +1,381 @@
+package se.mtm.examples.odata;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.request.retrieve.ODataRawRequest;
+import org.apache.olingo.client.api.communication.response.ODataRawResponse;
+import org.apache.olingo.client.api.uri.URIBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads all members of an entity set over several connections at once, merged into a single stream
+ *
+ * The set is split into partitions up front: key ranges between the lowest and highest key, found with two
+ * one-row requests ordered by the key - the second one also filtered on the key, as the ranges are. If the
+ * service rejects either (a 4xx response), the set is split into slices by $skip instead, sized from $count.
+ * Slices are ordered by the key if the service accepted that, and otherwise rely on it returning the members
+ * in the same order every time. There are a few partitions per thread, so that gaps in the keys don't leave
+ * one thread with most of the work. Each partition is read with {@link StreamingEntitySetReader}.
+ *
+ * Every page request is recorded (and throttled) on its own, and its rows are only handed on to the consumer
+ * once the request is done - so a reader waiting for a slow consumer never holds a permit the others need.
+ *
+ * Ordered scans return the members in key order (or the service's order, for unordered slices): partitions are started in order, and the rows of a partition
+ * are held back until the ones before it have been consumed. Unordered scans return rows as they arrive.
+ * Either way only a couple of pages per partition are buffered, so a slow consumer holds back reading.
+ */
+class ParallelEntitySetScan<R> {
+
+    // Partitions per thread, more partitions even out skewed key ranges at the cost of more requests
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    // Pages read but not yet consumed, per partition (ordered) or per thread (unordered)
+    private static final int QUEUED_PAGES = 2;
+
+    // How often a waiting consumer checks whether a partition failed
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private static final List<Object> END = Collections.emptyList();
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final String serviceUrl;
+    private final String entitySetName;
+    private final StreamingEntitySetReader<R> reader;
+    private final String operation;
+    private final String probeOperation;
+
+    /**
+     * @param reader reader of the rows, binding the properties to scan (its key property must be an integer)
+     */
+    ParallelEntitySetScan(ODataClient client, RequestRecorder recorder, String serviceUrl, String entitySetName,
+                          StreamingEntitySetReader<R> reader) {
+        this.client = client;
+        this.recorder = recorder;
+        this.serviceUrl = serviceUrl;
+        this.entitySetName = entitySetName;
+        this.reader = reader;
+        this.operation = "GET " + entitySetName + " (scan)";
+        this.probeOperation = "GET " + entitySetName + " (scan probe)";
+    }
+
+    /**
+     * Lazily stream all members of the entity set, reading up to the given number of partitions at a time
+     *
+     * Rows are read into records from newRecord (one per partition) and copied by copy, as they are passed
+     * between threads. Close the stream (e.g. using try-with-resources) if it isn't consumed to the end.
+     *
+     * @param ordered whether to return the members in key order, rather than as soon as they are read
+     */
+    <T> Stream<T> stream(int parallelism, int pageSize, boolean ordered, Supplier<R> newRecord, Function<R, T> copy) {
+        if (parallelism <= 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Parallelism and page size must be positive: " + parallelism + ", " + pageSize);
+        }
+        final List<Partition> partitions = partition(parallelism * PARTITIONS_PER_THREAD, pageSize);
+        final Merger<T> merger = new Merger<>(partitions.size(), ordered, parallelism);
+
+        final ExecutorService readers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, partitions.size())), r -> {
+            final Thread thread = new Thread(r, entitySetName + "-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Started in partition order, so the partition an ordered consumer waits for is always being read
+        for (int i = 0; i < partitions.size(); i++) {
+            final int index = i;
+            final Partition partition = partitions.get(i);
+            readers.execute(() -> merger.produce(index, pages -> readPartition(partition, pageSize, newRecord.get(), copy, pages)));
+        }
+        readers.shutdown();
+
+        final Spliterator<T> rows = Spliterators.spliteratorUnknownSize(merger,
+                ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL);
+        return StreamSupport.stream(rows, false).onClose(readers::shutdownNow);
+    }
+
+    /**
+     * Read a partition, passing on the rows of each page once its request is done
+     */
+    private <T> void readPartition(Partition partition, int pageSize, R record, Function<R, T> copy, Consumer<List<T>> pages) {
+        final List<T> pageRows = new ArrayList<>(pageSize);
+        partition.read(pageSize, record, row -> pageRows.add(copy.apply(row)), page -> {
+            final StreamingEntitySetReader.Page read = recorder.call(operation, page);
+            if (!pageRows.isEmpty()) {
+                pages.accept(new ArrayList<>(pageRows));
+                pageRows.clear();
+            }
+            return read;
+        });
+    }
+
+    //// Partitioning ////
+
+    /**
+     * Split the entity set into (at most) the given number of partitions, none smaller than a page
+     */
+    List<Partition> partition(int maxPartitions, int pageSize) {
+        final long count = count();
+        final int partitionCount = (int) Math.max(1, Math.min(maxPartitions, (count + pageSize - 1) / pageSize));
+        final List<Partition> partitions = new ArrayList<>(partitionCount);
+        if (count == 0) {
+            partitions.add(new KeyRange(null, null));
+            return partitions;
+        }
+
+        Long lowestKey = null;
+        Long highestKey = null;
+        boolean orderedByKey = true;
+        try {
+            lowestKey = boundaryKey(null, reader.getKeyProperty());
+            if (lowestKey != null) {
+                highestKey = boundaryKey(lowestKey, reader.getKeyProperty() + " desc");
+            }
+        } catch (ODataClientErrorException e) {
+            // The service can't order or filter by the key, fall back to $skip - other errors aren't about the query
+            orderedByKey = lowestKey != null;
+        }
+
+        if (lowestKey != null && highestKey != null) {
+            // Open-ended first and last ranges, so that members added meanwhile aren't missed
+            final long width = Math.max(1, (highestKey - lowestKey) / partitionCount + 1);
+            Long from = null;
+            for (int i = 1; i < partitionCount; i++) {
+                final long to = lowestKey + i * width;
+                if (to > highestKey) {
+                    break;
+                }
+                partitions.add(new KeyRange(from, to));
+                from = to;
+            }
+            partitions.add(new KeyRange(from, null));
+        } else {
+            final long size = (count + partitionCount - 1) / partitionCount;
+            for (long skip = 0; skip < count; skip += size) {
+                // The last slice is unbounded, picking up members added since counting
+                partitions.add(new Slice(skip, skip + size < count ? size : Long.MAX_VALUE - skip, orderedByKey));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Number of members of the entity set ($count)
+     */
+    private long count() {
+        final URI countUri = client.newURIBuilder(serviceUrl).appendEntitySetSegment(entitySetName).count().build();
+        return recorder.call(probeOperation, () -> {
+            final ODataRawRequest request = client.getRetrieveRequestFactory().getRawRequest(countUri);
+            request.setAccept("text/plain");
+            final ODataRawResponse response = request.execute();
+            try (InputStream body = response.getRawResponse()) {
+                return Long.parseLong(IOUtils.toString(body, StandardCharsets.UTF_8).trim());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read " + countUri, e);
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Key of the first member in the given order (from the given key on, if any), or null if there is none
+     */
+    private Long boundaryKey(Long fromKey, String orderBy) {
+        final URIBuilder uriBuilder = client.newURIBuilder(serviceUrl)
+                .appendEntitySetSegment(entitySetName)
+                .select(reader.getKeyProperty())
+                .orderBy(orderBy)
+                .top(1);
+        if (fromKey != null) {
+            uriBuilder.filter(client.getFilterFactory().ge(reader.getKeyProperty(), fromKey));
+        }
+        final URI uri = uriBuilder.build();
+        final StreamingEntitySetReader<Object> keyReader = new StreamingEntitySetReader<>(reader.getKeyProperty());
+        return recorder.call(probeOperation, () -> keyReader.read(client, uri, null, row -> { }).getLastKey());
+    }
+
+    /**
+     * Part of the entity set, read by one thread
+     */
+    abstract class Partition {
+        /**
+         * Read the members of the partition into the record, passed to the handler once per member, making each
+         * page request through pageRequest
+         */
+        abstract long read(int pageSize, R record, Consumer<R> rowHandler,
+                           Function<Supplier<StreamingEntitySetReader.Page>, StreamingEntitySetReader.Page> pageRequest);
+    }
+
+    /**
+     * Members with keys from fromKey (inclusive) to toKey (exclusive), either end open if null
+     */
+    private class KeyRange extends Partition {
+        private final Long fromKey;
+        private final Long toKey;
+
+        KeyRange(Long fromKey, Long toKey) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+        }
+
+        @Override
+        long read(int pageSize, R record, Consumer<R> rowHandler,
+                  Function<Supplier<StreamingEntitySetReader.Page>, StreamingEntitySetReader.Page> pageRequest) {
+            return reader.readRange(client, serviceUrl, entitySetName, pageSize, fromKey, toKey, record, rowHandler, pageRequest);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + (fromKey == null ? "" : fromKey) + ", " + (toKey == null ? "" : toKey) + ")";
+        }
+    }
+
+    /**
+     * Members from the given position in key order (or the service's order, if it can't order by the key)
+     */
+    private class Slice extends Partition {
+        private final long skip;
+        private final long count;
+        private final boolean orderedByKey;
+
+        Slice(long skip, long count, boolean orderedByKey) {
+            this.skip = skip;
+            this.count = count;
+            this.orderedByKey = orderedByKey;
+        }
+
+        @Override
+        long read(int pageSize, R record, Consumer<R> rowHandler,
+                  Function<Supplier<StreamingEntitySetReader.Page>, StreamingEntitySetReader.Page> pageRequest) {
+            return reader.readSlice(client, serviceUrl, entitySetName, pageSize, skip, count, orderedByKey, record, rowHandler,
+                    pageRequest);
+        }
+
+        @Override
+        public String toString() {
+            return "$skip=" + skip + (count < Long.MAX_VALUE - skip ? " $top=" + count : "") + (orderedByKey ? "" : " (unordered)");
+        }
+    }
+
+    //// Merging ////
+
+    /**
+     * Hands the pages of rows from the partition readers to the consumer, one queue per partition when ordered
+     * and one shared queue otherwise
+     */
+    private static class Merger<T> implements Iterator<T> {
+        private final int partitionCount;
+        private final boolean ordered;
+        private final List<BlockingQueue<List<T>>> queues = new ArrayList<>();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        // Consumer's position: partition being consumed (ordered) or partitions completed (unordered)
+        private int partition;
+        private Iterator<T> batch = Collections.emptyIterator();
+
+        Merger(int partitionCount, boolean ordered, int parallelism) {
+            this.partitionCount = partitionCount;
+            this.ordered = ordered;
+            for (int i = 0; i < (ordered ? partitionCount : 1); i++) {
+                queues.add(new ArrayBlockingQueue<>(ordered ? QUEUED_PAGES : QUEUED_PAGES * parallelism));
+            }
+        }
+
+        /**
+         * Run a partition's reader, queueing the pages of rows it passes on
+         */
+        void produce(int index, Consumer<Consumer<List<T>>> partitionReader) {
+            final BlockingQueue<List<T>> queue = queues.get(ordered ? index : 0);
+            try {
+                partitionReader.accept(page -> hand(page, queue));
+                hand(end(), queue);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext()) {
+                if (partition == partitionCount) {
+                    return false;
+                }
+                final List<T> next = take(queues.get(ordered ? partition : 0));
+                if (next == END) {
+                    partition++;
+                } else {
+                    batch = next.iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        /**
+         * Pass a batch to the consumer, waiting while it's behind
+         */
+        private static <T> void hand(List<T> batch, BlockingQueue<List<T>> queue) {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                // The stream was closed
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning", e);
+            }
+        }
+
+        /**
+         * Wait for the next batch, failing as soon as any partition has failed
+         */
+        private List<T> take(BlockingQueue<List<T>> queue) {
+            try {
+                List<T> next = queue.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                while (next == null) {
+                    if (failure.get() != null) {
+                        throw failure.get();
+                    }
+                    next = queue.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return next;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning", e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> List<T> end() {
+            return (List<T>) END;
+        }
+    }
+}
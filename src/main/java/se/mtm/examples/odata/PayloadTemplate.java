@@ -0,0 +1,128 @@
+package se.mtm.examples.odata;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON request body compiled once into constant bytes and slots, filled in per request
+ *
+ * A template is JSON with placeholders, e.g. {"MarcId":"${marcId}","DaysUntilDue":"1"}. Compiling it encodes
+ * the constant parts to UTF-8 once; writing a body copies those bytes and encodes the slot values straight into
+ * the target buffer (JSON-escaped), in the order the slots appear in the template. No object model is built and
+ * no intermediate strings or byte arrays are created.
+ *
+ * A slot inside quotes becomes a JSON string, one outside quotes takes a number or boolean as is.
+ */
+class PayloadTemplate {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Initial size of the per-thread buffers, doubled whenever a body doesn't fit
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    // Constant parts, one more than there are slots
+    private final byte[][] segments;
+    private final String[] slotNames;
+
+    private PayloadTemplate(byte[][] segments, String[] slotNames) {
+        this.segments = segments;
+        this.slotNames = slotNames;
+    }
+
+    /**
+     * Compile a template with slots written as ${name}
+     */
+    static PayloadTemplate compile(String template) {
+        final List<byte[]> segments = new ArrayList<>();
+        final List<String> slotNames = new ArrayList<>();
+        int position = 0;
+        for (int start = template.indexOf("${"); start >= 0; start = template.indexOf("${", position)) {
+            final int end = template.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated slot at " + start + " in " + template);
+            }
+            segments.add(template.substring(position, start).getBytes(StandardCharsets.UTF_8));
+            slotNames.add(template.substring(start + 2, end));
+            position = end + 1;
+        }
+        segments.add(template.substring(position).getBytes(StandardCharsets.UTF_8));
+        return new PayloadTemplate(segments.toArray(new byte[0][]), slotNames.toArray(new String[0]));
+    }
+
+    /**
+     * Names of the slots, in the order their values are given to {@link #write}
+     */
+    String[] getSlotNames() {
+        return slotNames.clone();
+    }
+
+    /**
+     * Write the body with the given slot values into the calling thread's buffer, which is returned ready to be
+     * read - valid until the thread writes another body
+     */
+    ByteBuffer write(CharSequence... values) {
+        ByteBuffer buffer = BUFFERS.get();
+        while (true) {
+            buffer.clear();
+            try {
+                write(buffer, values);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                BUFFERS.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * Write the body with the given slot values into the target buffer
+     *
+     * @throws BufferOverflowException if the body doesn't fit (the buffer is then partially written)
+     */
+    void write(ByteBuffer target, CharSequence... values) {
+        if (values.length != slotNames.length) {
+            throw new IllegalArgumentException("Expected values for " + String.join(", ", slotNames) + ", got " + values.length);
+        }
+        for (int i = 0; i < values.length; i++) {
+            target.put(segments[i]);
+            writeEscaped(target, values[i]);
+        }
+        target.put(segments[values.length]);
+    }
+
+    /**
+     * Encode a value as UTF-8, escaping what JSON strings can't contain as is
+     */
+    private static void writeEscaped(ByteBuffer target, CharSequence value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Slot values can't be null");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                target.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                target.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 0xf]);
+            } else if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target.put((byte) (0xf0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3f))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3f)).put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced like String.getBytes would
+                target.put((byte) '?');
+            } else {
+                target.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f)).put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+}
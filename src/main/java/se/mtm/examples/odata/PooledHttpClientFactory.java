@@ -0,0 +1,283 @@
+package se.mtm.examples.odata;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.olingo.client.api.http.HttpClientFactory;
+import org.apache.olingo.client.api.http.WrappingHttpClientFactory;
+import org.apache.olingo.client.core.http.AbstractHttpClientFactory;
+import org.apache.olingo.client.core.http.BasicAuthHttpClientFactory;
+import org.apache.olingo.commons.api.http.HttpMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP client factory sharing one pool of keep-alive connections between all requests
+ *
+ * Olingo's default factories create a new client - and thereby new connections (including TLS handshakes) -
+ * for every single request, and close them as soon as the response has been read. This factory instead hands
+ * out one shared client backed by a pooling connection manager, and never closes it on a per-request basis.
+ *
+ * Basic authentication (if credentials are given) is sent preemptively, saving the 401 round trip
+ * of the challenge-response handshake on every request.
+ *
+ * Response bodies are read into memory as soon as they arrive, which gives the connection back to the pool even
+ * where Olingo doesn't read a body to the end. Requests made {@link #streaming} are exempt: their callers read the
+ * body as it arrives, and give the connection back by closing it.
+ *
+ * Response statuses and payload sizes are reported to the {@link RequestRecorder} of the calling thread.
+ *
+ * Factories for several services (or users) may share one connection pool, see {@link #sharingPoolWith}.
+ */
+class PooledHttpClientFactory extends AbstractHttpClientFactory implements WrappingHttpClientFactory {
+
+    // Set while making requests whose response bodies the caller reads as a stream (see streaming)
+    private static final ThreadLocal<Boolean> STREAMING = ThreadLocal.withInitial(() -> false);
+
+    private static final HttpClientFactory STREAMED_BODIES_SUPPORTED = new BasicAuthHttpClientFactory(null, null);
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final Settings settings;
+    private final HttpClient httpClient;
+
+    // Closes connections that have been idle too long (or were closed by the server), null if the pool is shared
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Create a factory for a service not requiring authentication
+     */
+    PooledHttpClientFactory(Settings settings) {
+        this(null, null, settings);
+    }
+
+    PooledHttpClientFactory(String username, String password, Settings settings) {
+        this(newConnectionManager(settings), true, username, password, settings);
+    }
+
+    /**
+     * Factory authenticating as another user, sending requests through the connection pool of the given factory
+     *
+     * Only the owner of the pool closes it, on {@link #shutdown()}.
+     */
+    static PooledHttpClientFactory sharingPoolWith(PooledHttpClientFactory poolOwner, String username, String password) {
+        return new PooledHttpClientFactory(poolOwner.connectionManager, false, username, password, poolOwner.settings);
+    }
+
+    private PooledHttpClientFactory(PoolingClientConnectionManager connectionManager, boolean ownsPool,
+                                    String username, String password, Settings settings) {
+        this.connectionManager = connectionManager;
+        this.settings = settings;
+
+        final HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setUserAgent(params, USER_AGENT);
+        HttpConnectionParams.setConnectionTimeout(params, settings.connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, settings.readTimeoutMillis);
+
+        final DefaultHttpClient pooledClient = new DefaultHttpClient(connectionManager, params);
+        pooledClient.setKeepAliveStrategy((response, context) -> settings.keepAliveMillis);
+
+        // Olingo doesn't always read (or close) response bodies to the end, and wouldn't give the connection back
+        // to the pool if it did. Reading the body right away releases the connection as soon as the response is in.
+        // Error responses are always read right away, Olingo reads them into exceptions.
+        pooledClient.addResponseInterceptor((response, context) -> {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            long bytesReceived = 0;
+            if (response.getEntity() != null && STREAMING.get() && statusCode < 300) {
+                response.setEntity(new CountedHttpEntity(response.getEntity(), statusCode));
+            } else if (response.getEntity() != null) {
+                response.setEntity(new BufferedHttpEntity(response.getEntity()));
+                bytesReceived = response.getEntity().getContentLength();
+            }
+            RequestRecorder.received(statusCode, bytesReceived);
+        });
+        pooledClient.addRequestInterceptor((request, context) -> {
+            if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+                RequestRecorder.sent(((HttpEntityEnclosingRequest) request).getEntity().getContentLength());
+            }
+        });
+        if (username != null) {
+            final String credentials = Base64.encodeBase64String((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+            pooledClient.addRequestInterceptor((request, context) -> request.setHeader(HttpHeaders.AUTHORIZATION, "Basic " + credentials));
+        }
+
+        // Ask for compressed responses (and transparently decompress them)
+        this.httpClient = settings.gzip ? new DecompressingHttpClient(pooledClient) : pooledClient;
+
+        if (!ownsPool) {
+            this.evictor = null;
+            return;
+        }
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "http-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(settings.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }, settings.idleTimeoutMillis, settings.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static PoolingClientConnectionManager newConnectionManager(Settings settings) {
+        final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(settings.maxConnections);
+        connectionManager.setDefaultMaxPerRoute(settings.maxConnectionsPerRoute);
+        return connectionManager;
+    }
+
+    /**
+     * Make requests whose (successful) response bodies are read as they arrive, instead of into memory first
+     *
+     * The caller must close each body (or read it to the end), which gives its connection back to the pool.
+     */
+    static <T> T streaming(Supplier<T> request) {
+        final boolean outer = STREAMING.get();
+        STREAMING.set(true);
+        try {
+            return request.get();
+        } finally {
+            STREAMING.set(outer);
+        }
+    }
+
+    @Override
+    public HttpClient create(HttpMethod method, URI uri) {
+        return httpClient;
+    }
+
+    /**
+     * Never creates clients, it only makes Olingo read the bodies of streamed requests (e.g. $batch) as it sends them
+     *
+     * Without chunking Olingo otherwise reads such a body into memory before the caller has written it - and
+     * waits for it forever. It only knows its own basic authentication factory to be safe (or ones wrapping it).
+     */
+    @Override
+    public HttpClientFactory getWrappedHttpClientFactory() {
+        return STREAMED_BODIES_SUPPORTED;
+    }
+
+    /**
+     * Called by Olingo when a response has been consumed - the connection is already back in the pool
+     * (see the response interceptor), so the shared client must be kept open
+     */
+    @Override
+    public void close(HttpClient httpClient) {
+    }
+
+    /**
+     * Close all pooled connections (unless the pool is shared with, and owned by, another factory),
+     * the factory can't be used after this
+     */
+    void shutdown() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            connectionManager.shutdown();
+        }
+    }
+
+    /**
+     * Streamed response body, reporting its size once read (the caller reads it within the same request)
+     */
+    private static class CountedHttpEntity extends HttpEntityWrapper {
+        private final int statusCode;
+
+        CountedHttpEntity(HttpEntity wrapped, int statusCode) {
+            super(wrapped);
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new CountingInputStream(super.getContent()) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!closed) {
+                        closed = true;
+                        RequestRecorder.received(statusCode, getByteCount());
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Connection pool and transport settings (with defaults suitable for a single MM3 server)
+     */
+    static class Settings {
+        private int maxConnections = 50;
+        private int maxConnectionsPerRoute = 20;
+        private int connectTimeoutMillis = 10_000;
+        private int readTimeoutMillis = 60_000;
+        private long keepAliveMillis = 30_000;
+        private long idleTimeoutMillis = 30_000;
+        private boolean gzip = true;
+
+        static Settings defaults() {
+            return new Settings();
+        }
+
+        Settings maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        Settings maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        Settings connectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        Settings readTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * How long an idle connection is kept for reuse
+         */
+        Settings keepAliveMillis(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * How long a connection may sit idle in the pool before it's closed
+         */
+        Settings idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        Settings gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package se.mtm.examples.odata;
+
+/**
+ * Receiver of per-request measurements (see {@link RequestRecorder} for how they're taken)
+ *
+ * Implementations are called concurrently from all threads making requests, and must not block.
+ */
+interface RequestMetrics {
+
+    /**
+     * Metrics that are thrown away
+     */
+    RequestMetrics NONE = new RequestMetrics() {
+        @Override
+        public void requestCompleted(String operation, long latencyNanos, int statusCode, long bytesSent, long bytesReceived, boolean failed) {
+        }
+
+        @Override
+        public void requestRetried(String operation) {
+        }
+    };
+
+    /**
+     * A request has completed, successfully or not
+     *
+     * @param operation     name of the operation, e.g. "POST Borrowers/Default.Create"
+     * @param statusCode    HTTP status of the (last) response, 0 if nothing was sent (e.g. served from a cache)
+     * @param bytesSent     size of the request payload(s)
+     * @param bytesReceived size of the response payload(s), as transferred (i.e. compressed)
+     * @param failed        if the request threw an exception or got an error status (4xx, 5xx)
+     */
+    void requestCompleted(String operation, long latencyNanos, int statusCode, long bytesSent, long bytesReceived, boolean failed);
+
+    /**
+     * A failed request is about to be retried
+     */
+    void requestRetried(String operation);
+}
@@ -0,0 +1,126 @@
+package se.mtm.examples.odata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The one way requests are made: throttled by a {@link RequestThrottle}, timed and reported to {@link RequestMetrics}
+ *
+ * Each operation (endpoint) also has a {@link CircuitBreaker}, failing requests at once while the endpoint
+ * keeps failing.
+ *
+ * Status codes and payload sizes are picked up by the HTTP interceptors of {@link PooledHttpClientFactory},
+ * which run on the thread making the request - so they're collected per thread while a call is in progress.
+ * Requests made by nested calls count towards the outer call too, so the throttle can tell a call of several
+ * requests from a single one.
+ */
+class RequestRecorder {
+
+    // Exchange in progress on the current thread, if any
+    private static final ThreadLocal<Exchange> CURRENT = new ThreadLocal<>();
+
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final RequestMetrics metrics;
+    private final RequestThrottle throttle;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    RequestRecorder(RequestMetrics metrics, RequestThrottle throttle) {
+        this.metrics = metrics;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Make a request (or several, e.g. when paging) as the given operation, recording its latency and outcome
+     *
+     * Waits for the throttle first - unless called within another call, which already holds a permit. A call of
+     * several requests holds its permit throughout, so long-running reads should make a call per page instead.
+     *
+     * @throws CircuitBreaker.OpenException if the operation has failed repeatedly, without making the request
+     */
+    <T> T call(String operation, Supplier<T> request) {
+        final Exchange outer = CURRENT.get();
+        final CircuitBreaker circuitBreaker = outer == null ? circuitBreaker(operation) : null;
+        if (outer == null) {
+            circuitBreaker.acquirePermission();
+            try {
+                throttle.acquire(operation);
+            } catch (RuntimeException e) {
+                circuitBreaker.onNeutral();
+                throw e;
+            }
+        }
+        final Exchange exchange = new Exchange();
+        CURRENT.set(exchange);
+
+        final long start = System.nanoTime();
+        boolean failed = true;
+        RuntimeException failure = null;
+        try {
+            final T result = request.get();
+            failed = false;
+            return result;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            final long latencyNanos = System.nanoTime() - start;
+            CURRENT.set(outer);
+            if (outer != null) {
+                outer.requests += exchange.requests;
+            } else {
+                throttle.release(operation, latencyNanos, exchange.statusCode, exchange.requests, failure);
+                if (failure == null) {
+                    circuitBreaker.onSuccess();
+                } else if (RetryPolicy.isTransient(failure)) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onNeutral();
+                }
+            }
+            metrics.requestCompleted(operation, latencyNanos, exchange.statusCode, exchange.bytesSent, exchange.bytesReceived,
+                    failed || exchange.statusCode >= 400);
+        }
+    }
+
+    void retried(String operation) {
+        metrics.requestRetried(operation);
+    }
+
+    private CircuitBreaker circuitBreaker(String operation) {
+        final CircuitBreaker existing = circuitBreakers.get(operation);
+        return existing != null
+                ? existing
+                : circuitBreakers.computeIfAbsent(operation, name -> new CircuitBreaker(name, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS));
+    }
+
+    //// Called by HTTP interceptors ////
+
+    static void sent(long bytes) {
+        final Exchange exchange = CURRENT.get();
+        if (exchange != null && bytes > 0) {
+            exchange.bytesSent += bytes;
+        }
+    }
+
+    static void received(int statusCode, long bytes) {
+        final Exchange exchange = CURRENT.get();
+        if (exchange != null) {
+            exchange.statusCode = statusCode;
+            exchange.requests++;
+            if (bytes > 0) {
+                exchange.bytesReceived += bytes;
+            }
+        }
+    }
+
+    private static class Exchange {
+        private int statusCode;
+        private int requests;
+        private long bytesSent;
+        private long bytesReceived;
+    }
+}
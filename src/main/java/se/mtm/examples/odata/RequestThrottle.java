@@ -0,0 +1,92 @@
+package se.mtm.examples.odata;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds requests back so the service isn't overloaded - see {@link AdaptiveConcurrencyLimiter} and {@link TokenBucket}
+ *
+ * Every request waits for a permit of the (shared) concurrency limiter, and for a token of its operation's rate
+ * limit if it has one. Bulk jobs may thereby submit work as fast as they like, it's sent at the pace the service
+ * sustains instead of failing with 500/503.
+ */
+class RequestThrottle {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Map<String, TokenBucket> rateLimits = new ConcurrentHashMap<>();
+
+    /**
+     * @param limiter limiter of concurrent requests, or null for no limit
+     */
+    RequestThrottle(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Adaptive concurrency limit starting at the connection pool's default connections per route, no rate limits
+     */
+    static RequestThrottle defaults() {
+        return new RequestThrottle(new AdaptiveConcurrencyLimiter(20, 1, 50));
+    }
+
+    static RequestThrottle unlimited() {
+        return new RequestThrottle(null);
+    }
+
+    /**
+     * Cap the rate of requests of an operation (e.g. MMWebApiApp.CREATE_BORROWER)
+     */
+    RequestThrottle rateLimit(String operation, double perSecond, int burst) {
+        rateLimits.put(operation, new TokenBucket(perSecond, burst));
+        return this;
+    }
+
+    /**
+     * Wait until a request of the given operation may be sent
+     */
+    void acquire(String operation) {
+        try {
+            final TokenBucket rateLimit = rateLimits.get(operation);
+            if (rateLimit != null) {
+                rateLimit.acquire();
+            }
+            if (limiter != null) {
+                limiter.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send " + operation, e);
+        }
+    }
+
+    /**
+     * A request (or a call of several, e.g. reading several pages) has completed
+     *
+     * @param statusCode HTTP status of the last response, 0 if none
+     * @param requests   number of responses received, 0 if no request reached the service
+     * @param failure    exception thrown by the request, if any
+     */
+    void release(String operation, long latencyNanos, int statusCode, int requests, RuntimeException failure) {
+        if (limiter == null) {
+            return;
+        }
+        if (requests == 0 && failure == null) {
+            limiter.release();
+        } else if (requests > 1) {
+            limiter.release(latencyNanos / requests, isOverloaded(statusCode, failure));
+        } else {
+            limiter.release(operation, latencyNanos, isOverloaded(statusCode, failure));
+        }
+    }
+
+    AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    private static boolean isOverloaded(int statusCode, RuntimeException failure) {
+        if (statusCode >= 500 || statusCode == 429) {
+            return true;
+        }
+        return failure != null && RetryPolicy.isTransient(failure);
+    }
+}
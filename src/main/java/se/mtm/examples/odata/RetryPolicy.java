@@ -0,0 +1,122 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.ODataServerErrorException;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Retries transient failures (5xx responses, timeouts) with exponential backoff and jitter
+ *
+ * The delay before retry n is drawn at random between zero and initialDelay * 2^(n-1), capped at the maximum
+ * delay ("full jitter"), so clients failing at the same moment don't all come back at the same moment.
+ *
+ * Only retry requests that are idempotent, or - like borrower creation - check before retrying whether
+ * the failed attempt took effect after all. Policies are immutable and may be shared.
+ */
+class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Listener listener;
+
+    /**
+     * @param maxAttempts maximum number of attempts (1 means no retries)
+     */
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, initialDelayMillis, maxDelayMillis, (attempt, failure, delayMillis) -> { });
+    }
+
+    private RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, Listener listener) {
+        if (maxAttempts <= 0 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Attempts must be positive, and delays 0 <= initial <= max");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Three attempts, the second after up to 200 ms
+     */
+    static RetryPolicy defaults() {
+        return new RetryPolicy(3, 200, 5_000);
+    }
+
+    /**
+     * A copy of this policy, also telling the given listener about each retry
+     */
+    RetryPolicy onRetry(Listener retryListener) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, (attempt, failure, delayMillis) -> {
+            listener.retrying(attempt, failure, delayMillis);
+            retryListener.retrying(attempt, failure, delayMillis);
+        });
+    }
+
+    /**
+     * Make attempts (numbered from 1) until one succeeds, fails permanently, or attempts run out
+     */
+    <T> T execute(IntFunction<T> attempt) {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.apply(attemptNumber);
+            } catch (RuntimeException e) {
+                if (attemptNumber >= maxAttempts || !isTransient(e)) {
+                    throw e;
+                }
+                final long delayMillis = backoffMillis(attemptNumber);
+                listener.retrying(attemptNumber, e, delayMillis);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(interrupted);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Random delay after the given failed attempt
+     */
+    long backoffMillis(int failedAttempt) {
+        final long ceiling = Math.min(maxDelayMillis, initialDelayMillis << Math.min(failedAttempt - 1, 30));
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * If a failure may go away by itself: a server error, or a connect/read timeout
+     *
+     * Olingo reports 5xx responses as server errors, unless the response had a parsable OData error body.
+     * A request refused by an open circuit breaker isn't transient - the breaker decides when to try again.
+     */
+    static boolean isTransient(RuntimeException e) {
+        if (e instanceof ODataServerErrorException
+                || (e instanceof ODataClientErrorException && ((ODataClientErrorException) e).getStatusLine().getStatusCode() >= 500)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * An attempt has failed, and another will be made after the given delay
+         */
+        void retrying(int failedAttempt, RuntimeException failure, long delayMillis);
+    }
+}
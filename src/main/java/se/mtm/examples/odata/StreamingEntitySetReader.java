@@ -0,0 +1,319 @@
+package se.mtm.examples.odata;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.request.retrieve.ODataRawRequest;
+import org.apache.olingo.client.api.communication.response.ODataRawResponse;
+import org.apache.olingo.client.api.uri.FilterFactory;
+import org.apache.olingo.client.api.uri.URIBuilder;
+import org.apache.olingo.client.api.uri.URIFilter;
+import org.apache.olingo.commons.api.format.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads entity set responses (JSON without OData-metadata) straight into caller-provided records
+ *
+ * Unlike Olingo's deserialization no ClientEntity/ClientProperty/ClientValue graph is built. The response is
+ * parsed token by token, and only the bound properties are read - into one and the same record instance,
+ * which is handed to the row handler once per entity. The handler must copy anything it wants to keep.
+ * The bound properties are reset (to null, 0 or false) before each row, so a property missing from a row
+ * never keeps the value of the row before.
+ *
+ * Only the bound properties are requested ($select), and rows are paged through like {@link EntitySetPager}
+ * does: following '@odata.nextLink' if present, otherwise continuing after the last key read.
+ */
+class StreamingEntitySetReader<R> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String keyProperty;
+    private final Map<String, PropertyBinder<R>> binders = new LinkedHashMap<>();
+    private final Map<String, Consumer<R>> resets = new LinkedHashMap<>();
+
+    /**
+     * @param keyProperty integer key of the entity type (always read, used for keyset paging)
+     */
+    StreamingEntitySetReader(String keyProperty) {
+        this.keyProperty = keyProperty;
+    }
+
+    //// Bindings ////
+
+    /**
+     * Read a string property into the record (null if the value is null or missing)
+     */
+    StreamingEntitySetReader<R> bindString(String property, BiConsumer<R, String> setter) {
+        binders.put(property, (record, parser) -> setter.accept(record, parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText()));
+        resets.put(property, record -> setter.accept(record, null));
+        return this;
+    }
+
+    /**
+     * Read an integer property into the record (0 if the value is null or missing)
+     */
+    StreamingEntitySetReader<R> bindInt(String property, ObjIntConsumer<R> setter) {
+        binders.put(property, (record, parser) -> setter.accept(record, parser.getCurrentToken() == JsonToken.VALUE_NULL ? 0 : parser.getIntValue()));
+        resets.put(property, record -> setter.accept(record, 0));
+        return this;
+    }
+
+    /**
+     * Read a long property into the record (0 if the value is null or missing)
+     */
+    StreamingEntitySetReader<R> bindLong(String property, ObjLongConsumer<R> setter) {
+        binders.put(property, (record, parser) -> setter.accept(record, parser.getCurrentToken() == JsonToken.VALUE_NULL ? 0 : parser.getLongValue()));
+        resets.put(property, record -> setter.accept(record, 0));
+        return this;
+    }
+
+    /**
+     * Read a boolean property into the record (false if the value is null or missing)
+     */
+    StreamingEntitySetReader<R> bindBoolean(String property, BiConsumer<R, Boolean> setter) {
+        binders.put(property, (record, parser) -> setter.accept(record, parser.getCurrentToken() == JsonToken.VALUE_TRUE));
+        resets.put(property, record -> setter.accept(record, false));
+        return this;
+    }
+
+    /**
+     * The integer key property, always read
+     */
+    String getKeyProperty() {
+        return keyProperty;
+    }
+
+    /**
+     * Names of the bound properties, for use in $select
+     */
+    String[] selectedProperties() {
+        final Set<String> selected = new LinkedHashSet<>(binders.keySet());
+        selected.add(keyProperty);
+        return selected.toArray(new String[0]);
+    }
+
+    //// Reading ////
+
+    /**
+     * Read all members of an entity set, returning the number of rows read
+     */
+    long readAll(ODataClient client, String serviceUrl, String entitySetName, int pageSize, R record, Consumer<R> rowHandler) {
+        return readRange(client, serviceUrl, entitySetName, pageSize, null, null, record, rowHandler);
+    }
+
+    /**
+     * Like {@link #readAll(ODataClient, String, String, int, Object, Consumer)}, making each page request through
+     * pageRequest, as by readRange
+     */
+    long readAll(ODataClient client, String serviceUrl, String entitySetName, int pageSize, R record, Consumer<R> rowHandler,
+                 Function<Supplier<Page>, Page> pageRequest) {
+        return readRange(client, serviceUrl, entitySetName, pageSize, null, null, record, rowHandler, pageRequest);
+    }
+
+    /**
+     * Read the members of an entity set with keys from fromKey (inclusive) to toKey (exclusive), in key order,
+     * returning the number of rows read
+     *
+     * @param fromKey lowest key to read, or null to start from the first member
+     * @param toKey key to stop before, or null to read to the last member
+     */
+    long readRange(ODataClient client, String serviceUrl, String entitySetName, int pageSize, Long fromKey, Long toKey,
+                   R record, Consumer<R> rowHandler) {
+        return readRange(client, serviceUrl, entitySetName, pageSize, fromKey, toKey, record, rowHandler, Supplier::get);
+    }
+
+    /**
+     * Like {@link #readRange(ODataClient, String, String, int, Long, Long, Object, Consumer)}, making each page
+     * request through pageRequest (e.g. to record it), which reads the page by calling the supplier it's given
+     */
+    long readRange(ODataClient client, String serviceUrl, String entitySetName, int pageSize, Long fromKey, Long toKey,
+                   R record, Consumer<R> rowHandler, Function<Supplier<Page>, Page> pageRequest) {
+        long rows = 0;
+        URI pageUri = keysetPageUri(client, serviceUrl, entitySetName, pageSize, fromKey, null, toKey);
+        int windowCount = 0;
+        while (pageUri != null) {
+            final URI uri = pageUri;
+            final Page page = pageRequest.apply(() -> read(client, uri, record, rowHandler));
+            rows += page.rows;
+            windowCount += page.rows;
+
+            if (page.nextLink != null) {
+                pageUri = page.nextLink;
+            } else if (windowCount >= pageSize && page.keyed) {
+                windowCount = 0;
+                pageUri = keysetPageUri(client, serviceUrl, entitySetName, pageSize, null, page.getLastKey(), toKey);
+            } else {
+                pageUri = null;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Read the given number of members of an entity set, after skipping the first ones in key order, returning
+     * the number of rows read (fewer than asked for if the set ends before)
+     *
+     * Pages are requested with $skip, which the service may have to count its way through - prefer
+     * {@link #readRange} where the service can filter on the key. Each page request is made through pageRequest,
+     * as by readRange.
+     *
+     * @param orderByKey false for services that can't order by the key, which must then return the members
+     *                   in the same order every time
+     */
+    long readSlice(ODataClient client, String serviceUrl, String entitySetName, int pageSize, long skip, long count,
+                   boolean orderByKey, R record, Consumer<R> rowHandler, Function<Supplier<Page>, Page> pageRequest) {
+        long rows = 0;
+        while (rows < count) {
+            final URIBuilder uriBuilder = client.newURIBuilder(serviceUrl)
+                    .appendEntitySetSegment(entitySetName)
+                    .select(selectedProperties())
+                    .skip((int) (skip + rows))
+                    .top((int) Math.min(pageSize, count - rows));
+            if (orderByKey) {
+                uriBuilder.orderBy(keyProperty);
+            }
+            final URI pageUri = uriBuilder.build();
+            // Server-driven paging isn't followed, it wouldn't stop at the end of the slice
+            final Page page = pageRequest.apply(() -> read(client, pageUri, record, rowHandler));
+            if (page.rows == 0) {
+                break;
+            }
+            rows += page.rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Read the entity set response at the given URI, returning the server-driven next link (if any)
+     */
+    Page read(ODataClient client, URI uri, R record, Consumer<R> rowHandler) {
+        final ODataRawRequest request = client.getRetrieveRequestFactory().getRawRequest(uri);
+        request.setFormat(ContentType.JSON_NO_METADATA.toContentTypeString());
+        // Decoded as it arrives, instead of read into memory first
+        final ODataRawResponse response = PooledHttpClientFactory.streaming(request::execute);
+        try (InputStream json = response.getRawResponse()) {
+            return read(json, uri, record, rowHandler);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + uri, e);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Read an entity set response, '{"value": [{...}, ...], "@odata.nextLink": "..."}'
+     */
+    Page read(InputStream json, URI requestUri, R record, Consumer<R> rowHandler) throws IOException {
+        final Page page = new Page();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected an entity set object in response to " + requestUri);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("value".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readRow(parser, record, page);
+                        rowHandler.accept(record);
+                        page.rows++;
+                    }
+                } else if ("@odata.nextLink".equals(field)) {
+                    page.nextLink = requestUri.resolve(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return page;
+    }
+
+    private void readRow(JsonParser parser, R record, Page page) throws IOException {
+        for (Consumer<R> reset : resets.values()) {
+            reset.accept(record);
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // Field names are canonicalized by the parser, so this doesn't allocate a string per field
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if (keyProperty.equals(field)) {
+                page.lastKey = parser.getLongValue();
+                page.keyed = true;
+            }
+            final PropertyBinder<R> binder = binders.get(field);
+            if (binder != null) {
+                binder.bind(record, parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private URI keysetPageUri(ODataClient client, String serviceUrl, String entitySetName, int pageSize,
+                              Long fromKey, Long afterKey, Long toKey) {
+        final URIBuilder uriBuilder = client.newURIBuilder(serviceUrl)
+                .appendEntitySetSegment(entitySetName)
+                .select(selectedProperties())
+                .orderBy(keyProperty)
+                .top(pageSize);
+        final FilterFactory filters = client.getFilterFactory();
+        URIFilter filter = afterKey != null ? filters.gt(keyProperty, afterKey)
+                : fromKey != null ? filters.ge(keyProperty, fromKey)
+                : null;
+        if (toKey != null) {
+            filter = filter == null ? filters.lt(keyProperty, toKey) : filters.and(filter, filters.lt(keyProperty, toKey));
+        }
+        if (filter != null) {
+            uriBuilder.filter(filter);
+        }
+        return uriBuilder.build();
+    }
+
+    @FunctionalInterface
+    private interface PropertyBinder<R> {
+        void bind(R record, JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Summary of a read page
+     */
+    static class Page {
+        private int rows;
+        private URI nextLink;
+        private long lastKey;
+        private boolean keyed;
+
+        int getRows() {
+            return rows;
+        }
+
+        /**
+         * Server-driven link to the next page, or null
+         */
+        URI getNextLink() {
+            return nextLink;
+        }
+
+        /**
+         * Key of the last row of the page, or null if the page was empty
+         */
+        Long getLastKey() {
+            return keyed ? lastKey : null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package se.mtm.examples.odata;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Local copy of an entity set, kept up to date by {@link EntitySetSync}
+ *
+ * Changes are applied between {@link #upsert}/{@link #delete} calls and a {@link #commit}, which stores
+ * them together with the sync token describing where the next sync should continue.
+ */
+interface SyncStore {
+
+    /**
+     * The token stored by the last commit, or null if nothing has been synced yet
+     */
+    Properties getSyncToken();
+
+    /**
+     * Insert or replace an entity (primitive properties only, by name)
+     */
+    void upsert(long key, Map<String, Object> properties);
+
+    void delete(long key);
+
+    /**
+     * Keys of all stored entities
+     */
+    Set<Long> keys();
+
+    /**
+     * Durably store the changes applied since the last commit, along with the new sync token
+     */
+    void commit(Properties syncToken);
+
+    /**
+     * Remove all entities (before a full sync)
+     */
+    void clear();
+}
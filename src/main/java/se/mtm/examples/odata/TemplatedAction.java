@@ -0,0 +1,102 @@
+package se.mtm.examples.odata;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.olingo.client.api.ODataClient;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.ODataServerErrorException;
+import org.apache.olingo.client.api.http.HttpClientFactory;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * Invoker of one action on a hot write path, sending a pre-compiled {@link PayloadTemplate} as request body
+ *
+ * Bypasses Olingo's object model: no ClientValue tree is built and serialized for the request, and the response
+ * isn't deserialized into a ClientEntity unless asked for. The body is written into a per-thread buffer and
+ * sent from it as is, through the HTTP client of the OData client's factory (so pooling, authentication and
+ * request metrics work as for any other request).
+ *
+ * Failures are reported like Olingo reports them, as ODataClientErrorException (4xx) and
+ * ODataServerErrorException (5xx), so retries, circuit breakers and throttling treat them the same.
+ */
+class TemplatedAction {
+
+    private static final String JSON_NO_METADATA = ContentType.JSON_NO_METADATA.toContentTypeString();
+
+    private final ODataClient client;
+    private final RequestRecorder recorder;
+    private final URI actionUri;
+    private final String operation;
+    private final PayloadTemplate template;
+
+    /**
+     * @param template request body, with the action's parameters as slots (see {@link PayloadTemplate})
+     */
+    TemplatedAction(ODataClient client, RequestRecorder recorder, ActionInvoker action, String template) {
+        this.client = client;
+        this.recorder = recorder;
+        this.actionUri = action.getUri();
+        this.operation = action.getOperation();
+        this.template = PayloadTemplate.compile(template);
+    }
+
+    /**
+     * Invoke the action with the given slot values, only keeping the status of the response
+     */
+    ActionOutcome invoke(CharSequence... values) {
+        return invoke(response -> ActionOutcome.of(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase()), values);
+    }
+
+    /**
+     * Invoke the action with the given slot values, reading what's needed from the (successful) response
+     */
+    <T> T invoke(ResponseReader<T> responseReader, CharSequence... values) {
+        return recorder.call(operation, () -> {
+            final ByteBuffer body = template.write(values);
+            final HttpPost request = new HttpPost(actionUri);
+            request.setHeader(HttpHeader.CONTENT_TYPE, JSON_NO_METADATA);
+            request.setHeader(HttpHeader.ACCEPT, JSON_NO_METADATA);
+            request.setHeader(HttpHeader.ODATA_VERSION, "4.0");
+            request.setHeader(HttpHeader.ODATA_MAX_VERSION, "4.0");
+            request.setEntity(new ByteArrayEntity(body.array(), body.arrayOffset() + body.position(), body.remaining()));
+
+            final HttpClientFactory httpClientFactory = client.getConfiguration().getHttpClientFactory();
+            final HttpClient httpClient = httpClientFactory.create(HttpMethod.POST, actionUri);
+            try {
+                final HttpResponse response = httpClient.execute(request);
+                try {
+                    final int statusCode = response.getStatusLine().getStatusCode();
+                    if (statusCode >= 500) {
+                        throw new ODataServerErrorException(response.getStatusLine());
+                    }
+                    if (statusCode >= 400) {
+                        throw new ODataClientErrorException(response.getStatusLine());
+                    }
+                    return responseReader.read(response);
+                } finally {
+                    EntityUtils.consume(response.getEntity());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to invoke " + operation, e);
+            } finally {
+                httpClientFactory.close(httpClient);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        T read(HttpResponse response) throws IOException;
+    }
+}
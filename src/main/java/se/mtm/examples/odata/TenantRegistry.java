@@ -0,0 +1,121 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Facades to several library instances (tenants), sharing what can be shared between them
+ *
+ * All tenants send requests through one connection pool; tenants logging in as the same user share one
+ * OData client (and thereby its serializers), and tenants whose services have identical metadata documents
+ * share one parsed Entity Data Model (see {@link MetadataCache}).
+ *
+ * Each tenant has its own concurrency limit, so a busy library can't take all pooled connections and starve
+ * the others: keep the limit per tenant well below the pool's maximum number of connections.
+ *
+ * Thread safe - tenants may be registered and looked up concurrently.
+ */
+class TenantRegistry implements AutoCloseable {
+
+    private final PooledHttpClientFactory pool;
+    private final int maxConcurrentRequestsPerTenant;
+    private final Function<String, RequestMetrics> metricsPerTenant;
+
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MMWebApiApp> facades = new ConcurrentHashMap<>();
+
+    // OData clients, keyed by credentials
+    private final ConcurrentMap<String, ODataClient> clients = new ConcurrentHashMap<>();
+
+    TenantRegistry(PooledHttpClientFactory.Settings poolSettings, int maxConcurrentRequestsPerTenant) {
+        this(poolSettings, maxConcurrentRequestsPerTenant, tenantId -> RequestMetrics.NONE);
+    }
+
+    /**
+     * @param metricsPerTenant creates the request metrics of a tenant (e.g. a JmxRequestMetrics named after it)
+     */
+    TenantRegistry(PooledHttpClientFactory.Settings poolSettings, int maxConcurrentRequestsPerTenant,
+                   Function<String, RequestMetrics> metricsPerTenant) {
+        if (maxConcurrentRequestsPerTenant <= 0) {
+            throw new IllegalArgumentException("Concurrent requests per tenant must be positive");
+        }
+        this.pool = new PooledHttpClientFactory(poolSettings);
+        this.maxConcurrentRequestsPerTenant = maxConcurrentRequestsPerTenant;
+        this.metricsPerTenant = metricsPerTenant;
+    }
+
+    /**
+     * Register a tenant - registering it again with the same details is a no-op
+     */
+    void register(String tenantId, String serviceUrl, String username, String password) {
+        final Tenant tenant = new Tenant(serviceUrl, username, password);
+        final Tenant registered = tenants.putIfAbsent(tenantId, tenant);
+        if (registered != null && !registered.equals(tenant)) {
+            throw new IllegalArgumentException("Tenant " + tenantId + " is already registered with other details");
+        }
+    }
+
+    /**
+     * The facade of a registered tenant, created on first use
+     */
+    MMWebApiApp get(String tenantId) {
+        return facades.computeIfAbsent(tenantId, id -> {
+            final Tenant tenant = tenants.get(id);
+            if (tenant == null) {
+                throw new IllegalArgumentException("Unknown tenant " + id);
+            }
+            final ODataClient client = clients.computeIfAbsent(tenant.credentials(), credentials ->
+                    MMWebApiApp.initODataClient(PooledHttpClientFactory.sharingPoolWith(pool, tenant.username, tenant.password)));
+            final RequestThrottle throttle = new RequestThrottle(new AdaptiveConcurrencyLimiter(
+                    Math.min(20, maxConcurrentRequestsPerTenant), 1, maxConcurrentRequestsPerTenant));
+            return new MMWebApiApp(client, tenant.serviceUrl, metricsPerTenant.apply(id), throttle);
+        });
+    }
+
+    Set<String> getTenantIds() {
+        return Collections.unmodifiableSet(tenants.keySet());
+    }
+
+    /**
+     * Close the shared connection pool, no facade of the registry can be used after this
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static class Tenant {
+        private final String serviceUrl;
+        private final String username;
+        private final String password;
+
+        Tenant(String serviceUrl, String username, String password) {
+            this.serviceUrl = serviceUrl;
+            this.username = username;
+            this.password = password;
+        }
+
+        String credentials() {
+            return username + '\u0000' + password;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Tenant)) {
+                return false;
+            }
+            final Tenant tenant = (Tenant) other;
+            return serviceUrl.equals(tenant.serviceUrl) && credentials().equals(tenant.credentials());
+        }
+
+        @Override
+        public int hashCode() {
+            return serviceUrl.hashCode() * 31 + credentials().hashCode();
+        }
+    }
+}
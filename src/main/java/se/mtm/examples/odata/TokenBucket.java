@@ -0,0 +1,44 @@
+package se.mtm.examples.odata;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the rate of requests, allowing short bursts
+ *
+ * Tokens are added at a fixed rate up to the burst size, and each request takes one. When none are left
+ * the request reserves the next one and sleeps until it's due, so waiting requests are served in order.
+ */
+class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long refilledNanos = System.nanoTime();
+
+    TokenBucket(double perSecond, int burst) {
+        if (perSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Take a token, waiting for it if needed
+     */
+    void acquire() throws InterruptedException {
+        final long waitNanos;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledNanos) * tokensPerNano);
+            refilledNanos = now;
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package se.mtm.examples.odata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerId;
+import se.mtm.examples.odata.MMWebApiApp.MarcRecordId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActionBatcherTest {
+
+    private final Map<String, Integer> requests = new ConcurrentHashMap<>();
+    private MockMMWebApiServer server;
+    private MMWebApiApp app;
+
+    @Before
+    public void setUp() throws IOException {
+        server = MockMMWebApiServer.start(0, MockMMWebApiServer.Settings.defaults().borrowers(10));
+        app = new MMWebApiApp(server.getServiceUrl(), "user", "password", new RequestMetrics() {
+            @Override
+            public void requestCompleted(String operation, long latencyNanos, int statusCode, long bytesSent, long bytesReceived, boolean failed) {
+                requests.merge(operation + " " + statusCode, 1, Integer::sum);
+            }
+
+            @Override
+            public void requestRetried(String operation) {
+            }
+        }, RequestThrottle.unlimited());
+    }
+
+    @After
+    public void tearDown() {
+        app.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsLoansAndReservationsInOneBatchRequest() throws Exception {
+        final List<CompletableFuture<ActionOutcome>> outcomes = new ArrayList<>();
+        try (ActionBatcher batcher = app.newActionBatcher(10, 60_000)) {
+            outcomes.add(app.registerUnidirectionalLoan(batcher, new BorrowerId(1), new MarcRecordId(56190)));
+            // No such borrower, fails on its own without failing the others
+            outcomes.add(app.registerUnidirectionalLoan(batcher, new BorrowerId(999_999), new MarcRecordId(56190)));
+            outcomes.add(app.registerReservation(batcher, new BorrowerId(2), new MarcRecordId(30755)));
+            batcher.flush();
+
+            assertTrue(outcomes.get(0).get().isSuccess());
+            assertFalse(outcomes.get(1).get().isSuccess());
+            assertEquals(400, outcomes.get(1).get().getStatusCode());
+            assertTrue(outcomes.get(2).get().isSuccess());
+        }
+
+        assertEquals(1, server.size("BorrowerLoans"));
+        assertEquals(1, server.size("BorrowerReservations"));
+        assertEquals(1, requests.size());
+        assertEquals(Integer.valueOf(1), requests.get(MMWebApiApp.SEND_BATCH + " 200"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesActionsOnceClosed() {
+        final ActionBatcher batcher = app.newActionBatcher(10, 60_000);
+        batcher.close();
+
+        app.registerUnidirectionalLoan(batcher, new BorrowerId(1), new MarcRecordId(56190));
+    }
+}
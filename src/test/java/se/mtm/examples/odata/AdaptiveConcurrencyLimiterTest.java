@@ -0,0 +1,125 @@
+package se.mtm.examples.odata;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final String READ = MMWebApiApp.READ_BORROWER;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void raisesTheLimitWhileItIsInUse() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 4);
+
+        limiter.acquire();
+        limiter.release(READ, FAST, false);
+
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void leavesAnUnusedLimitAsItIs() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 8);
+
+        limiter.acquire();
+        limiter.release(READ, FAST, false);
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void backsOffOnceForRequestsOverloadedTogether() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        limiter.acquire();
+        limiter.acquire();
+
+        limiter.release(READ, TimeUnit.SECONDS.toNanos(10), true);
+        // Sent before the first one answered, within the same round trip
+        limiter.release(READ, TimeUnit.SECONDS.toNanos(10), true);
+
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void backsOffGentlyWhenLatencyRises() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        limiter.acquire();
+        limiter.release(READ, FAST, false);
+
+        limiter.acquire();
+        limiter.release(READ, SLOW, false);
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void comparesLatencyWithinTheSameOperationOnly() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        limiter.acquire();
+        limiter.release(READ, FAST, false);
+
+        limiter.acquire();
+        limiter.release(MMWebApiApp.READ_METADATA, SLOW, false);
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void keepsCallsOfSeveralRequestsOutOfTheBaseline() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        limiter.acquire();
+        limiter.release(READ, FAST, false);
+
+        // A call of many pages takes long in all, but isn't slow
+        limiter.acquire();
+        limiter.release(SLOW, false);
+        assertEquals(10, limiter.getLimit());
+
+        // ...nor does its latency raise the baseline, a slow single request still backs off
+        limiter.acquire();
+        limiter.release(READ, SLOW, false);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void backsOffFromOverloadInACallOfSeveralRequests() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+
+        limiter.acquire();
+        limiter.release(SLOW, true);
+
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimum() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 4);
+
+        limiter.acquire();
+        limiter.release(READ, FAST, true);
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void leavesTheLimitForRequestsNeverSent() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 4);
+
+        limiter.acquire();
+        limiter.release();
+
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInitialLimitOutsideTheBounds() {
+        new AdaptiveConcurrencyLimiter(8, 1, 4);
+    }
+}
@@ -0,0 +1,90 @@
+package se.mtm.examples.odata;
+
+import org.junit.Test;
+import se.mtm.examples.odata.ActionBatcher.ActionOutcome;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPayloadTest {
+
+    private static final URI LOAN = URI.create("http://localhost/odata/BorrowerLoans/Default.CreateElectronicLoan");
+
+    @Test
+    public void writesEachActionInAChangeSetOfItsOwn() {
+        final BatchPayload payload = new BatchPayload("batch_1")
+                .addAction(LOAN, "{\"MarcId\":\"1\"}".getBytes(StandardCharsets.UTF_8))
+                .addAction(LOAN, "{\"MarcId\":\"2\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("multipart/mixed;boundary=batch_1", payload.getContentType());
+        final String body = new String(payload.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("--batch_1\r\nContent-Type: multipart/mixed;boundary=changeset_batch_1_1\r\n"));
+        assertTrue(body.contains("Content-ID: 2\r\n\r\nPOST " + LOAN + " HTTP/1.1\r\n"));
+        assertTrue(body.contains("Content-Length: 14\r\n\r\n{\"MarcId\":\"2\"}\r\n--changeset_batch_1_2--\r\n"));
+        assertTrue(body.endsWith("--changeset_batch_1_2--\r\n--batch_1--\r\n"));
+    }
+
+    @Test
+    public void readsTheStatusOfEachAnswerInOrder() {
+        final String response = "--batchresponse_x\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"changesetresponse_a\"\r\n"
+                + "\r\n"
+                + "--changesetresponse_a\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-Transfer-Encoding: binary\r\n"
+                + "\r\n"
+                + "HTTP/1.1 201 Created\r\n"
+                + "Content-Type: application/json\r\n"
+                + "\r\n"
+                + "{\"Id\":1}\r\n"
+                + "--changesetresponse_a--\r\n"
+                + "--batchresponse_x\r\n"
+                + "Content-Type: application/http\r\n"
+                + "\r\n"
+                + "HTTP/1.1 400 Bad Request\r\n"
+                + "\r\n"
+                + "{\"error\":{}}\r\n"
+                + "--batchresponse_x\r\n"
+                + "Content-Type: application/http\r\n"
+                + "\r\n"
+                + "HTTP/1.1 204\r\n"
+                + "\r\n"
+                + "\r\n"
+                + "--batchresponse_x--\r\n";
+
+        final List<ActionOutcome> outcomes = BatchPayload.readOutcomes("multipart/mixed; boundary=batchresponse_x",
+                response.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(3, outcomes.size());
+        assertEquals(201, outcomes.get(0).getStatusCode());
+        assertEquals("Created", outcomes.get(0).getStatusMessage());
+        assertEquals(400, outcomes.get(1).getStatusCode());
+        assertEquals(204, outcomes.get(2).getStatusCode());
+        assertEquals("", outcomes.get(2).getStatusMessage());
+    }
+
+    @Test
+    public void readsOnlyTheAnswersOfAnUnfinishedResponse() {
+        // The service stopped at the first failure (no 'continue-on-error'), later actions are unanswered
+        final String response = "--b\n"
+                + "Content-Type: application/http\n"
+                + "\n"
+                + "HTTP/1.1 500 Internal Server Error\n"
+                + "\n"
+                + "--b--\n";
+
+        final List<ActionOutcome> outcomes = BatchPayload.readOutcomes("multipart/mixed;boundary=b", response.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, outcomes.size());
+        assertEquals(500, outcomes.get(0).getStatusCode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAResponseThatIsNotMultipart() {
+        BatchPayload.readOutcomes("application/json", "{}".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,101 @@
+package se.mtm.examples.odata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+
+    private final CircuitBreaker breaker = new CircuitBreaker("Borrowers", 3, OPEN_MILLIS);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        failRequests(breaker, 2);
+        breaker.acquirePermission();
+        assertFalse(breaker.isOpen());
+
+        failRequests(breaker, 1);
+
+        assertTrue(breaker.isOpen());
+        assertRefused(breaker);
+    }
+
+    @Test
+    public void countsOnlyConsecutiveFailures() {
+        failRequests(breaker, 2);
+        breaker.onSuccess();
+        failRequests(breaker, 2);
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void closesAfterASuccessfulTrialRequest() throws InterruptedException {
+        failRequests(breaker, 3);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        breaker.acquirePermission();
+        // A single trial request at a time
+        assertRefused(breaker);
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        breaker.acquirePermission();
+        // Counting starts over
+        failRequests(breaker, 2);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void reopensAfterAFailedTrialRequest() throws InterruptedException {
+        failRequests(breaker, 3);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        breaker.acquirePermission();
+        breaker.onFailure();
+
+        assertTrue(breaker.isOpen());
+        assertRefused(breaker);
+        Thread.sleep(OPEN_MILLIS + 10);
+        breaker.acquirePermission();
+    }
+
+    @Test
+    public void closesAfterATrialRequestSayingNothingAboutHealth() throws InterruptedException {
+        failRequests(breaker, 3);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        breaker.acquirePermission();
+        breaker.onNeutral();
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void staysClosedOnNeutralFailures() {
+        failRequests(breaker, 2);
+        breaker.onNeutral();
+        breaker.onNeutral();
+
+        assertFalse(breaker.isOpen());
+    }
+
+    private static void failRequests(CircuitBreaker breaker, int failures) {
+        for (int i = 0; i < failures; i++) {
+            breaker.onFailure();
+        }
+    }
+
+    private static void assertRefused(CircuitBreaker breaker) {
+        try {
+            breaker.acquirePermission();
+            fail("Expected the circuit to be open");
+        } catch (CircuitBreaker.OpenException expected) {
+            assertTrue(expected.getMessage().startsWith("Circuit of Borrowers is open"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package se.mtm.examples.odata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.mtm.examples.odata.CommandJournal.Command;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandJournalTest {
+
+    private static final int CAPACITY = 1024 * 1024;
+
+    // Header: magic and first sequence number. Record of a loan: length, CRC, type, sequence, kind and two ids
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final int LOAN_RECORD_SIZE = 4 + 4 + 1 + 8 + 2 + 4 + 1 + 2 * 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsUnacknowledgedCommandsAcrossARestart() throws IOException {
+        final Path file = journalFile();
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            final Command loan = journal.record("loan", 1, 56190);
+            journal.record("reservation", 2, 30755);
+            journal.acknowledge(loan, 201);
+            journal.record("loan", 3, 56190);
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            final List<Command> unacknowledged = journal.unacknowledged();
+            assertEquals(Arrays.asList(1L, 2L), sequences(unacknowledged));
+            assertEquals("reservation", unacknowledged.get(0).getKind());
+            assertEquals(2, unacknowledged.get(0).getArgument(0));
+            assertEquals(30755, unacknowledged.get(0).getArgument(1));
+
+            // Numbering continues where it stopped
+            assertEquals(3, journal.record("loan", 4, 56190).getSequence());
+        }
+    }
+
+    @Test
+    public void ignoresARecordTornByACrash() throws IOException {
+        final Path file = journalFile();
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            for (int i = 0; i < 5; i++) {
+                journal.record("loan", i, i);
+            }
+        }
+        // The last byte of the third record never reached the disk
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(HEADER_SIZE + 3 * LOAN_RECORD_SIZE - 1);
+            raf.write(0x7f);
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            assertEquals(Arrays.asList(0L, 1L), sequences(journal.unacknowledged()));
+            journal.record("loan", 10, 10);
+        }
+
+        // The records after the torn one were cleared, and aren't taken for those appended since
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            assertEquals(Arrays.asList(0L, 1L, 2L), sequences(journal.unacknowledged()));
+            assertEquals(10, journal.unacknowledged().get(2).getArgument(0));
+        }
+    }
+
+    @Test
+    public void compactsToTheUnacknowledgedCommands() throws IOException {
+        final Path file = journalFile();
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            for (int i = 0; i < 10; i++) {
+                final Command loan = journal.record("loan", i, i);
+                if (i % 2 == 0) {
+                    journal.acknowledge(loan, 201);
+                }
+            }
+            journal.compact();
+            journal.record("loan", 10, 10);
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L, 10L), sequences(journal.unacknowledged()));
+        }
+    }
+
+    @Test
+    public void compactsAndGrowsWhenFull() throws IOException {
+        final Path file = journalFile();
+        final List<Long> expected = new ArrayList<>();
+        try (CommandJournal journal = new CommandJournal(file, 2048)) {
+            // Many times what fits, a third of it never acknowledged
+            for (int i = 0; i < 2000; i++) {
+                final Command loan = journal.record("loan", i, i);
+                if (i % 3 == 0) {
+                    expected.add(loan.getSequence());
+                } else {
+                    journal.acknowledge(loan, 201);
+                }
+            }
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, 2048)) {
+            assertEquals(expected, sequences(journal.unacknowledged()));
+        }
+        // Grown to hold them, with room to spare
+        assertTrue(Files.size(file) >= 2 * (HEADER_SIZE + expected.size() * LOAN_RECORD_SIZE));
+    }
+
+    @Test
+    public void ignoresASecondAcknowledgement() throws IOException {
+        final Path file = journalFile();
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            final Command loan = journal.record("loan", 1, 1);
+            journal.acknowledge(loan, 201);
+            journal.acknowledge(loan, 201);
+            journal.record("loan", 2, 2);
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, CAPACITY)) {
+            assertEquals(Arrays.asList(1L), sequences(journal.unacknowledged()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsATooSmallCapacity() {
+        new CommandJournal(journalFile(), 512);
+    }
+
+    private Path journalFile() {
+        return folder.getRoot().toPath().resolve("commands.journal");
+    }
+
+    private static List<Long> sequences(List<Command> commands) {
+        final List<Long> sequences = new ArrayList<>();
+        for (Command command : commands) {
+            sequences.add(command.getSequence());
+        }
+        return sequences;
+    }
+}
@@ -0,0 +1,88 @@
+package se.mtm.examples.odata;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class EntitySetPagerTest {
+
+    private final AtomicInteger pageRequests = new AtomicInteger();
+    private MockMMWebApiServer server;
+    private MMWebApiApp app;
+
+    @After
+    public void tearDown() {
+        app.close();
+        server.close();
+    }
+
+    @Test
+    public void readsAllMembersInKeyOrderOnce() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(250));
+
+        assertEquals(ids(1, 250), readIds(100));
+        // Two full pages and a partial one, which ends the set
+        assertEquals(3, pageRequests.get());
+    }
+
+    @Test
+    public void asksForOneMorePageWhenTheLastPageIsFull() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(200));
+
+        assertEquals(ids(1, 200), readIds(100));
+        assertEquals(3, pageRequests.get());
+    }
+
+    @Test
+    public void followsNextLinksWithinAKeysetWindow() throws IOException {
+        // Each keyset query of 100 is answered 30 at a time, the rest linked to with '@odata.nextLink'
+        start(MockMMWebApiServer.Settings.defaults().borrowers(250).maxPageSize(30));
+
+        assertEquals(ids(1, 250), readIds(100));
+        // Windows of 100, 100 and 50 members, in 4 + 4 + 2 responses
+        assertEquals(10, pageRequests.get());
+    }
+
+    @Test
+    public void readsAnEmptySet() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(0));
+
+        assertEquals(ids(1, 0), readIds(100));
+        assertEquals(1, pageRequests.get());
+    }
+
+    private void start(MockMMWebApiServer.Settings settings) throws IOException {
+        server = MockMMWebApiServer.start(0, settings);
+        app = new MMWebApiApp(server.getServiceUrl(), "user", "password", new RequestMetrics() {
+            @Override
+            public void requestCompleted(String operation, long latencyNanos, int statusCode, long bytesSent, long bytesReceived, boolean failed) {
+                if (MMWebApiApp.READ_BORROWERS.equals(operation)) {
+                    pageRequests.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void requestRetried(String operation) {
+            }
+        }, RequestThrottle.unlimited());
+    }
+
+    private List<Long> readIds(int pageSize) {
+        try (Stream<Long> ids = app.streamBorrowers(pageSize)
+                .map(borrower -> ((Number) borrower.getProperty("Id").getPrimitiveValue().toValue()).longValue())) {
+            return ids.collect(Collectors.toList());
+        }
+    }
+
+    private static List<Long> ids(long first, long last) {
+        return LongStream.rangeClosed(first, last).boxed().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,130 @@
+package se.mtm.examples.odata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSyncStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysCommittedChangesWhenReopened() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final FileSyncStore store = new FileSyncStore(directory, "borrowers");
+        store.upsert(1, borrower("Alva"));
+        store.upsert(2, borrower("Bo"));
+        store.commit(token("1"));
+        store.upsert(2, borrower("Bosse"));
+        store.delete(1);
+        store.upsert(3, borrower("Cecilia"));
+        store.commit(token("2"));
+        // Never committed
+        store.upsert(4, borrower("Dan"));
+
+        final FileSyncStore reopened = new FileSyncStore(directory, "borrowers");
+
+        assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), reopened.keys());
+        assertEquals("Bosse", reopened.get(2).get("Name"));
+        assertEquals("2", reopened.getSyncToken().getProperty("deltaLink"));
+        // Only commits, the snapshot is written once the log outgrows it
+        assertFalse(Files.exists(directory.resolve("borrowers.json")));
+    }
+
+    @Test
+    public void dropsALineTornByACrash() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final FileSyncStore store = new FileSyncStore(directory, "borrowers");
+        store.upsert(1, borrower("Alva"));
+        store.commit(token("1"));
+        final Path log = directory.resolve("borrowers.changes");
+        final long committed = Files.size(log);
+        Files.write(log, "{\"token\":{\"deltaLink\":\"2\"},\"changes\":{\"2\":{\"Na".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final FileSyncStore reopened = new FileSyncStore(directory, "borrowers");
+
+        assertEquals(Collections.singleton(1L), reopened.keys());
+        assertEquals("1", reopened.getSyncToken().getProperty("deltaLink"));
+        assertEquals(committed, Files.size(log));
+
+        // Later commits follow the last whole line
+        reopened.upsert(2, borrower("Bo"));
+        reopened.commit(token("2"));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), new FileSyncStore(directory, "borrowers").keys());
+    }
+
+    @Test
+    public void rewritesTheSnapshotAfterAFullSync() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final FileSyncStore store = new FileSyncStore(directory, "borrowers");
+        store.upsert(1, borrower("Alva"));
+        store.commit(token("1"));
+
+        store.clear();
+        store.upsert(2, borrower("Bo"));
+        store.commit(token("2"));
+
+        assertFalse(Files.exists(directory.resolve("borrowers.changes")));
+        final FileSyncStore reopened = new FileSyncStore(directory, "borrowers");
+        assertEquals(Collections.singleton(2L), reopened.keys());
+        assertNull(reopened.get(1));
+        assertEquals("2", reopened.getSyncToken().getProperty("deltaLink"));
+    }
+
+    @Test
+    public void compactsTheLogOnceItOutgrowsTheSnapshot() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final Path log = directory.resolve("borrowers.changes");
+        final FileSyncStore store = new FileSyncStore(directory, "borrowers");
+        final char[] note = new char[1024];
+        Arrays.fill(note, 'x');
+
+        // The same ten borrowers changed over and over, past the smallest log worth compacting
+        int commits = 0;
+        while (!Files.exists(log) || Files.size(log) <= 1024 * 1024) {
+            final Map<String, Object> properties = borrower("Borrower " + commits);
+            properties.put("Note", new String(note));
+            store.upsert(commits % 10, properties);
+            store.commit(token(Integer.toString(commits++)));
+        }
+        store.upsert(10, borrower("Last"));
+        store.commit(token("last"));
+
+        assertFalse(Files.exists(log));
+        assertTrue(Files.size(directory.resolve("borrowers.json")) < 64 * 1024);
+        final FileSyncStore reopened = new FileSyncStore(directory, "borrowers");
+        assertEquals(11, reopened.size());
+        assertEquals("Borrower " + (commits - 1), reopened.get((commits - 1) % 10).get("Name"));
+        assertEquals("last", reopened.getSyncToken().getProperty("deltaLink"));
+    }
+
+    private static Map<String, Object> borrower(String name) {
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("Name", name);
+        return properties;
+    }
+
+    private static Properties token(String deltaLink) {
+        final Properties token = new Properties();
+        token.setProperty("deltaLink", deltaLink);
+        return token;
+    }
+}
@@ -0,0 +1,112 @@
+package se.mtm.examples.odata;
+
+import org.junit.After;
+import org.junit.Test;
+import se.mtm.examples.odata.MMWebApiApp.BorrowerSummary;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelEntitySetScanTest {
+
+    private MockMMWebApiServer server;
+    private PooledHttpClientFactory httpClientFactory;
+    private MMWebApiApp app;
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.close();
+        }
+        if (httpClientFactory != null) {
+            httpClientFactory.shutdown();
+        }
+        server.close();
+    }
+
+    @Test
+    public void partitionsTheKeysIntoRangesOfAboutAPage() throws IOException {
+        final ParallelEntitySetScan<long[]> scan = newScan(MockMMWebApiServer.Settings.defaults().borrowers(250));
+
+        // Open-ended at both ends, picking up members added meanwhile
+        assertEquals("[[, 51), [51, 101), [101, 151), [151, 201), [201, )]", scan.partition(16, 50).toString());
+        assertEquals("[[, 85), [85, 169), [169, )]", scan.partition(3, 50).toString());
+    }
+
+    @Test
+    public void readsASmallSetInOnePartition() throws IOException {
+        assertEquals("[[, )]", newScan(MockMMWebApiServer.Settings.defaults().borrowers(30)).partition(16, 50).toString());
+        assertEquals("[[, )]", newScan(MockMMWebApiServer.Settings.defaults().borrowers(0)).partition(16, 50).toString());
+    }
+
+    @Test
+    public void returnsMembersInKeyOrderWhenOrdered() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(1000).maxPageSize(30));
+
+        assertEquals(ids(1, 1000), scanIds(4, 50, true));
+    }
+
+    @Test
+    public void returnsEachMemberOnceWhenUnordered() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(1000).maxPageSize(30));
+
+        final List<Long> ids = scanIds(4, 50, false);
+        Collections.sort(ids);
+        assertEquals(ids(1, 1000), ids);
+    }
+
+    @Test
+    public void copiesEachRowOutOfTheReusedRecord() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(100));
+
+        try (Stream<BorrowerSummary> borrowers = app.scanBorrowerSummaries(2, 10, true)) {
+            final List<BorrowerSummary> summaries = borrowers.collect(Collectors.toList());
+            assertEquals(100, summaries.stream().distinct().count());
+            assertEquals(ids(1, 100), summaries.stream().map(BorrowerSummary::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void stopsReadingWhenClosedEarly() throws IOException {
+        start(MockMMWebApiServer.Settings.defaults().borrowers(1000));
+
+        try (Stream<BorrowerSummary> borrowers = app.scanBorrowerSummaries(4, 10, true)) {
+            assertEquals(Arrays.asList(1L, 2L, 3L), borrowers.limit(3).map(BorrowerSummary::getId).collect(Collectors.toList()));
+        }
+    }
+
+    private void start(MockMMWebApiServer.Settings settings) throws IOException {
+        server = MockMMWebApiServer.start(0, settings);
+        app = new MMWebApiApp(server.getServiceUrl(), "user", "password", RequestMetrics.NONE, RequestThrottle.unlimited());
+    }
+
+    private ParallelEntitySetScan<long[]> newScan(MockMMWebApiServer.Settings settings) throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        server = MockMMWebApiServer.start(0, settings);
+        if (httpClientFactory == null) {
+            httpClientFactory = new PooledHttpClientFactory("user", "password", PooledHttpClientFactory.Settings.defaults());
+        }
+        return new ParallelEntitySetScan<>(MMWebApiApp.initODataClient(httpClientFactory),
+                new RequestRecorder(RequestMetrics.NONE, RequestThrottle.unlimited()), server.getServiceUrl(), "Borrowers",
+                new StreamingEntitySetReader<long[]>("Id"));
+    }
+
+    private List<Long> scanIds(int parallelism, int pageSize, boolean ordered) {
+        try (Stream<BorrowerSummary> borrowers = app.scanBorrowerSummaries(parallelism, pageSize, ordered)) {
+            return borrowers.map(BorrowerSummary::getId).collect(Collectors.toList());
+        }
+    }
+
+    private static List<Long> ids(long first, long last) {
+        return LongStream.rangeClosed(first, last).boxed().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,103 @@
+package se.mtm.examples.odata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PayloadTemplateTest {
+
+    private final PayloadTemplate loan = PayloadTemplate.compile("{\"MarcId\":\"${marcId}\",\"DaysUntilDue\":${days}}");
+
+    @Test
+    public void fillsSlotsInTemplateOrder() {
+        assertArrayEquals(new String[] {"marcId", "days"}, loan.getSlotNames());
+        assertEquals("{\"MarcId\":\"56190\",\"DaysUntilDue\":14}", text(loan.write("56190", "14")));
+    }
+
+    @Test
+    public void writesATemplateWithoutSlotsAsIs() {
+        assertEquals("{\"Confirm\":true}", text(PayloadTemplate.compile("{\"Confirm\":true}").write()));
+    }
+
+    @Test
+    public void escapesQuotesBackslashesAndControlCharacters() {
+        assertEquals("{\"Note\":\"\\\"A\\\\B\\\"\\u000a\\u0009\\u001f end\"}",
+                text(PayloadTemplate.compile("{\"Note\":\"${note}\"}").write("\"A\\B\"\n\t\u001f end")));
+    }
+
+    @Test
+    public void encodesTheSameBytesAsStringGetBytes() {
+        final PayloadTemplate note = PayloadTemplate.compile("{\"Note\":\"${note}\"}");
+        // Two, three and four (a surrogate pair) byte characters
+        for (String value : Arrays.asList("Åsa Öberg", "© ࠀ € ￿", "📚 Läsbok")) {
+            assertArrayEquals(("{\"Note\":\"" + value + "\"}").getBytes(StandardCharsets.UTF_8), bytes(note.write(value)));
+        }
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() {
+        final PayloadTemplate note = PayloadTemplate.compile("{\"Note\":\"${note}\"}");
+
+        assertEquals("{\"Note\":\"a?b?\"}", text(note.write("a\ud83db\udcda")));
+        assertEquals("{\"Note\":\"?\"}", text(note.write("\ud83d")));
+    }
+
+    @Test
+    public void writesJsonThatParsesBackToTheValues() throws IOException {
+        final String value = "\"quoted\" \\ \r\n \u0000 åäö 📚";
+        final Map<?, ?> parsed = new ObjectMapper().readValue(bytes(loan.write(value, "1")), Map.class);
+
+        assertEquals(value, parsed.get("MarcId"));
+    }
+
+    @Test
+    public void growsTheBufferForALargeBody() {
+        final char[] large = new char[10_000];
+        Arrays.fill(large, 'å');
+
+        final ByteBuffer body = loan.write(new String(large), "1");
+
+        assertEquals(("{\"MarcId\":\"" + new String(large) + "\",\"DaysUntilDue\":1}").getBytes(StandardCharsets.UTF_8).length, body.remaining());
+        // Small bodies after it still fit
+        assertEquals("{\"MarcId\":\"1\",\"DaysUntilDue\":1}", text(loan.write("1", "1")));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void failsWhenTheTargetIsTooSmall() {
+        loan.write(ByteBuffer.allocate(16), "56190", "14");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANullValue() {
+        loan.write("56190", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheWrongNumberOfValues() {
+        loan.write("56190");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnterminatedSlot() {
+        PayloadTemplate.compile("{\"MarcId\":\"${marcId");
+    }
+
+    private static byte[] bytes(ByteBuffer body) {
+        final byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static String text(ByteBuffer body) {
+        return new String(bytes(body), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package se.mtm.examples.odata;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.olingo.client.api.communication.ODataClientErrorException;
+import org.apache.olingo.client.api.communication.ODataServerErrorException;
+import org.apache.olingo.client.api.http.HttpClientException;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 1, 2);
+
+    @Test
+    public void retriesATransientFailure() {
+        final List<Integer> retried = new ArrayList<>();
+
+        final String result = policy.onRetry((attempt, failure, delayMillis) -> retried.add(attempt)).execute(attempt -> {
+            if (attempt < 3) {
+                throw serverError(503);
+            }
+            return "attempt " + attempt;
+        });
+
+        assertEquals("attempt 3", result);
+        assertEquals(Arrays.asList(1, 2), retried);
+    }
+
+    @Test
+    public void givesUpWhenAttemptsRunOut() {
+        final ODataServerErrorException last = serverError(503);
+        final List<Integer> attempts = new ArrayList<>();
+        try {
+            policy.execute(attempt -> {
+                attempts.add(attempt);
+                throw attempt == 3 ? last : serverError(503);
+            });
+            fail("Expected the last failure");
+        } catch (ODataServerErrorException e) {
+            assertSame(last, e);
+        }
+        assertEquals(Arrays.asList(1, 2, 3), attempts);
+    }
+
+    @Test
+    public void neverRetriesAPermanentFailure() {
+        final List<Integer> attempts = new ArrayList<>();
+        try {
+            policy.execute(attempt -> {
+                attempts.add(attempt);
+                throw new ODataClientErrorException(new BasicStatusLine(HttpVersion.HTTP_1_1, 404, "Not Found"));
+            });
+            fail("Expected the failure");
+        } catch (ODataClientErrorException e) {
+            assertEquals(Arrays.asList(1), attempts);
+        }
+    }
+
+    @Test
+    public void tellsTransientFailuresApart() {
+        assertTrue(RetryPolicy.isTransient(serverError(500)));
+        // A 5xx response with an OData error body
+        assertTrue(RetryPolicy.isTransient(new ODataClientErrorException(new BasicStatusLine(HttpVersion.HTTP_1_1, 503, "Service Unavailable"))));
+        assertTrue(RetryPolicy.isTransient(new HttpClientException(new SocketTimeoutException("Read timed out"))));
+
+        assertFalse(RetryPolicy.isTransient(new ODataClientErrorException(new BasicStatusLine(HttpVersion.HTTP_1_1, 429, "Too Many Requests"))));
+        assertFalse(RetryPolicy.isTransient(new CircuitBreaker.OpenException("Borrowers", 1_000)));
+        assertFalse(RetryPolicy.isTransient(new IllegalStateException()));
+    }
+
+    @Test
+    public void drawsBackoffsBelowADoublingCeiling() {
+        final RetryPolicy backoff = new RetryPolicy(10, 100, 1_000);
+        for (int i = 0; i < 1_000; i++) {
+            assertBetween(0, 100, backoff.backoffMillis(1));
+            assertBetween(0, 400, backoff.backoffMillis(3));
+            assertBetween(0, 1_000, backoff.backoffMillis(9));
+            // Far past where the shift would overflow
+            assertBetween(0, 1_000, backoff.backoffMillis(70));
+        }
+        assertEquals(0, new RetryPolicy(3, 0, 0).backoffMillis(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMaximumDelayBelowTheInitialOne() {
+        new RetryPolicy(3, 100, 10);
+    }
+
+    private static ODataServerErrorException serverError(int statusCode) {
+        return new ODataServerErrorException(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, "Server Error"));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
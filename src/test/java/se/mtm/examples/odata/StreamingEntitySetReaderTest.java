@@ -0,0 +1,116 @@
+package se.mtm.examples.odata;
+
+import org.apache.olingo.client.api.ODataClient;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StreamingEntitySetReaderTest {
+
+    private static final URI REQUEST_URI = URI.create("http://localhost/odata/Borrowers?$top=2");
+
+    private final StreamingEntitySetReader<String[]> reader = new StreamingEntitySetReader<String[]>("Id")
+            .bindString("Name", (row, name) -> row[0] = name)
+            .bindString("MainEmail", (row, email) -> row[1] = email);
+
+    private MockMMWebApiServer server;
+    private PooledHttpClientFactory httpClientFactory;
+
+    @After
+    public void tearDown() {
+        if (httpClientFactory != null) {
+            httpClientFactory.shutdown();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void readsBoundPropertiesIntoTheReusedRecord() throws IOException {
+        final List<String> rows = new ArrayList<>();
+        final StreamingEntitySetReader.Page page = read("{\"value\":["
+                + "{\"Id\":1,\"Name\":\"Alva\",\"Barcodes\":[{\"Barcode\":\"1\"}],\"MainEmail\":\"alva@example.com\"},"
+                + "{\"Id\":2,\"Name\":null,\"MainEmail\":\"bo@example.com\",\"Address\":{\"City\":\"Malmö\"}}"
+                + "],\"@odata.nextLink\":\"Borrowers?$skiptoken=2\"}", rows);
+
+        assertEquals(Arrays.asList("[Alva, alva@example.com]", "[null, bo@example.com]"), rows);
+        assertEquals(2, page.getRows());
+        assertEquals(Long.valueOf(2), page.getLastKey());
+        assertEquals(URI.create("http://localhost/odata/Borrowers?$skiptoken=2"), page.getNextLink());
+    }
+
+    @Test
+    public void resetsPropertiesMissingFromARow() throws IOException {
+        final List<String> rows = new ArrayList<>();
+        read("{\"value\":[{\"Id\":1,\"Name\":\"Alva\",\"MainEmail\":\"alva@example.com\"},{\"Id\":2,\"Name\":\"Bo\"},{\"Id\":3}]}", rows);
+
+        assertEquals(Arrays.asList("[Alva, alva@example.com]", "[Bo, null]", "[null, null]"), rows);
+    }
+
+    @Test
+    public void readsAnEmptyPage() throws IOException {
+        final List<String> rows = new ArrayList<>();
+        final StreamingEntitySetReader.Page page = read("{\"@odata.context\":\"$metadata#Borrowers\",\"value\":[]}", rows);
+
+        assertEquals(0, rows.size());
+        assertNull(page.getLastKey());
+        assertNull(page.getNextLink());
+    }
+
+    @Test
+    public void readsAKeyRangeInKeysetWindows() throws IOException {
+        // Keyset queries of 100 are answered 30 at a time, the rest linked to with '@odata.nextLink'
+        final ODataClient client = startServer(MockMMWebApiServer.Settings.defaults().borrowers(250).maxPageSize(30));
+        final List<Long> keys = new ArrayList<>();
+        final AtomicInteger pageRequests = new AtomicInteger();
+
+        final long rows = new StreamingEntitySetReader<long[]>("Id").bindLong("Id", (key, id) -> key[0] = id)
+                .readRange(client, server.getServiceUrl(), "Borrowers", 100, 50L, 220L, new long[1], key -> keys.add(key[0]), page -> {
+                    pageRequests.incrementAndGet();
+                    return page.get();
+                });
+
+        assertEquals(170, rows);
+        assertEquals(LongStream.range(50, 220).boxed().collect(Collectors.toList()), keys);
+        // Windows of 100 and 70 keys, in 4 + 3 responses
+        assertEquals(7, pageRequests.get());
+    }
+
+    @Test
+    public void readsASliceBySkipping() throws IOException {
+        final ODataClient client = startServer(MockMMWebApiServer.Settings.defaults().borrowers(250));
+        final List<Long> keys = new ArrayList<>();
+
+        final long rows = new StreamingEntitySetReader<long[]>("Id").bindLong("Id", (key, id) -> key[0] = id)
+                .readSlice(client, server.getServiceUrl(), "Borrowers", 40, 200, 100, true, new long[1], key -> keys.add(key[0]), page -> page.get());
+
+        // Fewer than asked for, the set ends before
+        assertEquals(50, rows);
+        assertEquals(LongStream.rangeClosed(201, 250).boxed().collect(Collectors.toList()), keys);
+    }
+
+    private StreamingEntitySetReader.Page read(String json, List<String> rows) throws IOException {
+        return reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), REQUEST_URI, new String[2],
+                row -> rows.add(Arrays.toString(row)));
+    }
+
+    private ODataClient startServer(MockMMWebApiServer.Settings settings) throws IOException {
+        server = MockMMWebApiServer.start(0, settings);
+        httpClientFactory = new PooledHttpClientFactory("user", "password", PooledHttpClientFactory.Settings.defaults());
+        return MMWebApiApp.initODataClient(httpClientFactory);
+    }
+}